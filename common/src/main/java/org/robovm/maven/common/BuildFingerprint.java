@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Records everything that goes into a RoboVM build (effective config, target
+ * and the size, modification time and content hash of every input file) so
+ * that a build can be skipped when nothing has changed since the last
+ * successful one.
+ * <p>
+ * Content hashes of files whose size and modification time are unchanged
+ * since the previous fingerprint are reused rather than recomputed, which
+ * keeps the up-to-date check cheap for large classpaths.
+ */
+public class BuildFingerprint {
+
+    private static final String FILE_PREFIX = "file:";
+
+    private final Map<String, String> entries = new TreeMap<>();
+    private final BuildFingerprint previous;
+
+    public BuildFingerprint(BuildFingerprint previous) {
+        this.previous = previous;
+    }
+
+    public BuildFingerprint put(String key, String value) {
+        entries.put(key, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Adds a file or, recursively, all files in a directory to this
+     * fingerprint. Non-existing files are recorded as missing.
+     */
+    public BuildFingerprint addFile(File file) throws IOException {
+        file = file.getAbsoluteFile();
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    addFile(child);
+                }
+            }
+        } else if (file.exists()) {
+            String key = FILE_PREFIX + file.getPath();
+            String stamp = file.length() + ":" + file.lastModified() + ":";
+            String old = previous != null ? previous.entries.get(key) : null;
+            if (old != null && old.startsWith(stamp)) {
+                entries.put(key, old);
+            } else {
+                entries.put(key, stamp + Digests.sha256(file));
+            }
+        } else {
+            entries.put(FILE_PREFIX + file.getPath(), "missing");
+        }
+        return this;
+    }
+
+    /**
+     * Adds {@code file} like {@link #addFile(File)} and also records its
+     * content hash under {@code key}. Unlike the file itself the key is part
+     * of the {@link #getConfigKey() config key}, so changing the contents of
+     * the file (but not merely touching it) invalidates all build outputs.
+     */
+    public BuildFingerprint putFileHash(String key, File file) throws IOException {
+        addFile(file);
+        String stamp = entries.get(FILE_PREFIX + file.getAbsolutePath());
+        entries.put(key, stamp.substring(stamp.lastIndexOf(':') + 1));
+        return this;
+    }
+
+    /**
+     * Returns a hash of everything in this fingerprint except the input
+     * files, i.e. the config, target and goal parameters.
+     */
+    public String getConfigKey() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (!entry.getKey().startsWith(FILE_PREFIX)) {
+                sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+            }
+        }
+        return Digests.sha256(sb.toString());
+    }
+
+    /**
+     * Returns {@code true} unless there is a previous fingerprint which is
+     * identical to this one.
+     */
+    public boolean hasChanged() {
+        return previous == null || !entries.equals(previous.entries);
+    }
+
+    /**
+     * Loads a previously stored fingerprint. Returns {@code null} if the file
+     * doesn't exist or cannot be read.
+     */
+    public static BuildFingerprint load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        BuildFingerprint fingerprint = new BuildFingerprint(null);
+        for (String key : props.stringPropertyNames()) {
+            fingerprint.entries.put(key, props.getProperty(key));
+        }
+        return fingerprint;
+    }
+
+    public void store(File file) throws IOException {
+        Properties props = new Properties();
+        props.putAll(entries);
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, "RoboVM build fingerprint");
+        }
+    }
+}
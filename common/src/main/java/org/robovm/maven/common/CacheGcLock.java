@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The lock file which keeps the cache GC of the plugin from evicting
+ * compiled classes while a build is using them. Builds hold a shared lock,
+ * the cache GC holds an exclusive lock. The plugin additionally coordinates
+ * the threads of a parallel reactor build using its {@code FileLocks};
+ * processes which only run one build at a time, like the surefire provider,
+ * use {@link #lockShared(File)}.
+ */
+public final class CacheGcLock {
+
+    private CacheGcLock() {
+    }
+
+    /**
+     * Returns the lock file of the compiled class cache in the specified
+     * directory.
+     */
+    public static File getLockFile(File cacheRoot) {
+        return new File(cacheRoot, ".gc.lock");
+    }
+
+    /**
+     * Acquires a shared lock on the lock file of the compiled class cache in
+     * the specified directory, blocking while the cache GC is running.
+     */
+    public static Closeable lockShared(File cacheRoot) throws IOException {
+        File lockFile = getLockFile(cacheRoot);
+        lockFile.getParentFile().mkdirs();
+        final FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final FileLock lock;
+        try {
+            lock = channel.lock(0, Long.MAX_VALUE, true);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new Closeable() {
+            public void close() throws IOException {
+                try {
+                    lock.release();
+                } finally {
+                    channel.close();
+                }
+            }
+        };
+    }
+}
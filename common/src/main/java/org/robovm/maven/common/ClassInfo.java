@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The parts of a class file the plugin and the surefire provider are
+ * interested in: the number of methods (for size reports) and the classes
+ * the class may depend on (for test impact analysis). Class names use the
+ * internal form, e.g. {@code java/lang/Object}.
+ * <p>
+ * The references are collected conservatively: any type found in a
+ * descriptor or signature, including those of annotations, and any string
+ * constant which looks like a class name, e.g. one passed to
+ * {@code Class.forName()}, is included.
+ */
+public final class ClassInfo {
+
+    private final int methodCount;
+    private final Set<String> references;
+
+    private ClassInfo(int methodCount, Set<String> references) {
+        this.methodCount = methodCount;
+        this.references = references;
+    }
+
+    public int getMethodCount() {
+        return methodCount;
+    }
+
+    /**
+     * Returns the names of all classes referenced by this class, excluding
+     * the class itself.
+     */
+    public Set<String> getReferences() {
+        return references;
+    }
+
+    public static ClassInfo parse(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor
+        in.readUnsignedShort(); // major
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classIndexes = new int[count];
+        List<Integer> stringIndexes = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                utf8[i] = in.readUTF();
+                break;
+            case 7: // Class
+                classIndexes[i] = in.readUnsignedShort();
+                break;
+            case 8: // String
+                stringIndexes.add(in.readUnsignedShort());
+                break;
+            case 12: // NameAndType
+                in.readInt();
+                break;
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                in.readUnsignedShort();
+                break;
+            case 15: // MethodHandle
+                in.readUnsignedByte();
+                in.readUnsignedShort();
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                in.readInt();
+                break;
+            case 5: // Long
+            case 6: // Double
+                in.readLong();
+                i++;
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        in.readUnsignedShort(); // access flags
+        String name = utf8[classIndexes[in.readUnsignedShort()]];
+        in.readUnsignedShort(); // super class
+        int interfaceCount = in.readUnsignedShort();
+        for (int i = 0; i < interfaceCount; i++) {
+            in.readUnsignedShort();
+        }
+        int fieldCount = in.readUnsignedShort();
+        for (int i = 0; i < fieldCount; i++) {
+            skipMember(in);
+        }
+        int methodCount = in.readUnsignedShort();
+        for (int i = 0; i < methodCount; i++) {
+            skipMember(in);
+        }
+
+        Set<String> references = new TreeSet<>();
+        for (int i = 1; i < count; i++) {
+            if (classIndexes[i] != 0) {
+                String s = utf8[classIndexes[i]];
+                if (s.startsWith("[")) {
+                    addDescriptorTypes(s, references);
+                } else {
+                    references.add(s);
+                }
+            }
+        }
+        // Descriptors and signatures of members, annotations and generics
+        // all live in the constant pool
+        for (int i = 1; i < count; i++) {
+            if (utf8[i] != null && utf8[i].indexOf(';') != -1) {
+                addDescriptorTypes(utf8[i], references);
+            }
+        }
+        for (int index : stringIndexes) {
+            String s = index > 0 && index < count ? utf8[index] : null;
+            if (s != null && s.indexOf('.') > 0 && s.matches("[\\w$.]+")) {
+                references.add(s.replace('.', '/'));
+            }
+        }
+        references.remove(name);
+
+        return new ClassInfo(methodCount, Collections.unmodifiableSet(references));
+    }
+
+    private static void skipMember(DataInputStream in) throws IOException {
+        in.readUnsignedShort(); // access flags
+        in.readUnsignedShort(); // name
+        in.readUnsignedShort(); // descriptor
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            in.readUnsignedShort();
+            int length = in.readInt();
+            in.skipBytes(length);
+        }
+    }
+
+    private static void addDescriptorTypes(String descriptor, Set<String> types) {
+        int i = descriptor.indexOf('L');
+        while (i != -1) {
+            // Generic signatures continue with type arguments after '<'
+            int end = i + 1;
+            while (end < descriptor.length() && descriptor.charAt(end) != ';'
+                    && descriptor.charAt(end) != '<') {
+                end++;
+            }
+            if (end == descriptor.length()) {
+                break;
+            }
+            types.add(descriptor.substring(i + 1, end));
+            i = descriptor.indexOf('L', end);
+        }
+    }
+}
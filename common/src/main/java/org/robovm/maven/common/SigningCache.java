@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.robovm.compiler.target.ios.ProvisioningProfile;
+import org.robovm.compiler.target.ios.SigningIdentity;
+
+/**
+ * Avoids the cost of discovering signing identities and provisioning
+ * profiles on every build.
+ * <p>
+ * Provisioning profiles are looked up using an index stored on disk which
+ * maps each profile file to its name, UUID and expiration date. The index is
+ * revalidated on every lookup using the size and modification time of each
+ * profile, and the SHA-256 of those whose stamp has changed, so only new or
+ * changed profiles have to be parsed. A lookup only parses the profiles whose
+ * name or UUID matches and falls back to parsing all profiles if none of them
+ * is accepted by {@link ProvisioningProfile#find(List, String)}. Like
+ * {@link ProvisioningProfile#list()} expired profiles are skipped and the
+ * remaining ones are ordered by expiration date, latest first.
+ * <p>
+ * Signing identities are cached in memory and on disk for as long as the
+ * keychains are unchanged, which avoids running the {@code security} tool
+ * once per module, goal and Maven invocation. The expiration date of each
+ * identity's certificate is cached too and expired identities are dropped.
+ */
+public class SigningCache {
+
+    private static final String EXTENSION = ".mobileprovision";
+
+    private static Map<SigningIdentity, Long> signingIdentities;
+    private static String signingIdentitiesKey;
+
+    private final File profilesDir;
+    private final File indexFile;
+    private final File keychainsDir;
+    private final File identitiesFile;
+
+    public SigningCache(File profilesDir, File cacheDir) {
+        this(profilesDir, cacheDir, new File(System.getProperty("user.home"), "Library/Keychains"));
+    }
+
+    SigningCache(File profilesDir, File cacheDir, File keychainsDir) {
+        this.profilesDir = profilesDir != null ? profilesDir
+                : new File(System.getProperty("user.home"), "Library/MobileDevice/Provisioning Profiles");
+        if (cacheDir == null) {
+            cacheDir = new File(System.getProperty("user.home"), ".robovm/cache");
+        }
+        this.indexFile = new File(cacheDir, "provisioning-profiles-"
+                + Digests.sha256(this.profilesDir.getAbsolutePath()).substring(0, 12) + ".properties");
+        this.keychainsDir = keychainsDir;
+        this.identitiesFile = new File(cacheDir, "signing-identities.properties");
+    }
+
+    public SigningIdentity findSigningIdentity(String search) {
+        return SigningIdentity.find(getSigningIdentities(), search);
+    }
+
+    private List<SigningIdentity> getSigningIdentities() {
+        String stamp = stamp(keychainsDir);
+        synchronized (SigningCache.class) {
+            String key = identitiesFile.getAbsolutePath() + "|" + stamp;
+            if (signingIdentities == null || !key.equals(signingIdentitiesKey)) {
+                Map<SigningIdentity, Long> identities = loadSigningIdentities(stamp);
+                if (identities == null) {
+                    identities = new LinkedHashMap<>();
+                    Map<String, Long> expirations = readCertificateExpirations();
+                    for (SigningIdentity identity : listSigningIdentities()) {
+                        Long expires = expirations.get(identity.getFingerprint().toUpperCase());
+                        identities.put(identity, expires != null ? expires : Long.MAX_VALUE);
+                    }
+                    storeSigningIdentities(stamp, identities);
+                }
+                signingIdentities = identities;
+                signingIdentitiesKey = key;
+            }
+            long now = System.currentTimeMillis();
+            List<SigningIdentity> result = new ArrayList<>();
+            for (Map.Entry<SigningIdentity, Long> entry : signingIdentities.entrySet()) {
+                if (entry.getValue() > now) {
+                    result.add(entry.getKey());
+                }
+            }
+            return result;
+        }
+    }
+
+    List<SigningIdentity> listSigningIdentities() {
+        return SigningIdentity.list();
+    }
+
+    /**
+     * Returns the expiration dates of the certificates in the keychains keyed
+     * by upper case SHA-1 fingerprint, which is the fingerprint of the
+     * corresponding {@link SigningIdentity}. Returns an empty map if the
+     * certificates cannot be listed.
+     */
+    Map<String, Long> readCertificateExpirations() {
+        Map<String, Long> expirations = new HashMap<>();
+        try {
+            Process process = new ProcessBuilder("security", "find-certificate", "-a", "-Z", "-p")
+                    .redirectErrorStream(true).start();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))) {
+                CertificateFactory factory = CertificateFactory.getInstance("X.509");
+                String hash = null;
+                StringBuilder pem = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("SHA-1 hash:")) {
+                        hash = line.substring("SHA-1 hash:".length()).trim().toUpperCase();
+                    } else if (line.startsWith("-----BEGIN CERTIFICATE-----")) {
+                        pem = new StringBuilder();
+                        pem.append(line).append('\n');
+                    } else if (pem != null) {
+                        pem.append(line).append('\n');
+                        if (line.startsWith("-----END CERTIFICATE-----")) {
+                            if (hash != null) {
+                                try {
+                                    X509Certificate cert = (X509Certificate) factory.generateCertificate(
+                                            new ByteArrayInputStream(pem.toString().getBytes(StandardCharsets.US_ASCII)));
+                                    expirations.put(hash, cert.getNotAfter().getTime());
+                                } catch (CertificateException e) {
+                                    // Ignore certificates we cannot parse
+                                }
+                            }
+                            hash = null;
+                            pem = null;
+                        }
+                    }
+                }
+            }
+            process.waitFor();
+        } catch (IOException | CertificateException e) {
+            expirations.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            expirations.clear();
+        }
+        return expirations;
+    }
+
+    /**
+     * Returns the identities and their expiration dates stored on disk for
+     * the keychains with the specified stamp or {@code null} if there are
+     * none.
+     */
+    private Map<SigningIdentity, Long> loadSigningIdentities(String stamp) {
+        Properties props = load(identitiesFile);
+        if (!stamp.equals(props.getProperty("keychains.stamp"))) {
+            return null;
+        }
+        try {
+            // SigningIdentity has no public constructor
+            Constructor<SigningIdentity> constructor =
+                    SigningIdentity.class.getDeclaredConstructor(String.class, String.class);
+            constructor.setAccessible(true);
+            int count = Integer.parseInt(props.getProperty("count"));
+            Map<SigningIdentity, Long> identities = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = props.getProperty(i + ".name");
+                String fingerprint = props.getProperty(i + ".fingerprint");
+                String expires = props.getProperty(i + ".expires");
+                if (name == null || fingerprint == null || expires == null) {
+                    return null;
+                }
+                identities.put(constructor.newInstance(name, fingerprint), Long.parseLong(expires));
+            }
+            return identities;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void storeSigningIdentities(String stamp, Map<SigningIdentity, Long> identities) {
+        Properties props = new Properties();
+        props.setProperty("keychains.stamp", stamp);
+        props.setProperty("count", String.valueOf(identities.size()));
+        int i = 0;
+        for (Map.Entry<SigningIdentity, Long> entry : identities.entrySet()) {
+            props.setProperty(i + ".name", entry.getKey().getName());
+            props.setProperty(i + ".fingerprint", entry.getKey().getFingerprint());
+            props.setProperty(i + ".expires", String.valueOf(entry.getValue()));
+            i++;
+        }
+        try {
+            store(props, identitiesFile, "Signing identities in " + keychainsDir);
+        } catch (IOException e) {
+            // Only means that the identities will be listed again next time
+        }
+    }
+
+    private static String stamp(File dir) {
+        StringBuilder sb = new StringBuilder().append(dir.lastModified());
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                sb.append(';').append(f.getName()).append(':')
+                        .append(f.length()).append(':').append(f.lastModified());
+            }
+        }
+        return sb.toString();
+    }
+
+    public ProvisioningProfile findProvisioningProfile(String search) throws IOException {
+        List<ProvisioningProfile> candidates = new ArrayList<>();
+        for (File f : findCandidates(search)) {
+            candidates.add(ProvisioningProfile.create(f));
+        }
+        if (!candidates.isEmpty()) {
+            try {
+                return ProvisioningProfile.find(candidates, search);
+            } catch (IllegalArgumentException e) {
+                // Fall back to searching all profiles
+            }
+        }
+        List<ProvisioningProfile> all = new ArrayList<>();
+        for (File f : listProfiles(updateIndex())) {
+            all.add(ProvisioningProfile.create(f));
+        }
+        return ProvisioningProfile.find(all, search);
+    }
+
+    /**
+     * Returns the unexpired profiles whose UUID or name matches
+     * {@code search}, in the order of {@link ProvisioningProfile#list()}.
+     */
+    List<File> findCandidates(String search) throws IOException {
+        Properties index = updateIndex();
+
+        Pattern pattern = null;
+        if (search.length() > 1 && search.startsWith("/") && search.endsWith("/")) {
+            pattern = Pattern.compile(search.substring(1, search.length() - 1));
+        }
+        List<File> candidates = new ArrayList<>();
+        for (File f : listProfiles(index)) {
+            String uuid = index.getProperty(f.getName() + ".uuid");
+            String profileName = index.getProperty(f.getName() + ".name", "");
+            boolean match = pattern != null ? pattern.matcher(profileName).find()
+                    : search.equals(uuid) || profileName.startsWith(search);
+            if (match) {
+                candidates.add(f);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the unexpired profiles in the specified index ordered by
+     * expiration date, latest first, like {@link ProvisioningProfile#list()}.
+     * Profiles expiring at the same time are ordered by file name.
+     */
+    private List<File> listProfiles(final Properties index) {
+        long now = System.currentTimeMillis();
+        List<File> result = new ArrayList<>();
+        for (File f : listProfileFiles()) {
+            if (expires(index, f) > now) {
+                result.add(f);
+            }
+        }
+        Collections.sort(result, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                int c = Long.compare(expires(index, o2), expires(index, o1));
+                return c != 0 ? c : o1.compareTo(o2);
+            }
+        });
+        return result;
+    }
+
+    private static long expires(Properties index, File f) {
+        return Long.parseLong(index.getProperty(f.getName() + ".expires", "0"));
+    }
+
+    private File[] listProfileFiles() {
+        File[] files = profilesDir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> result = new ArrayList<>();
+        for (File f : files) {
+            if (f.isFile() && f.getName().endsWith(EXTENSION)) {
+                result.add(f);
+            }
+        }
+        File[] sorted = result.toArray(new File[result.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns the UUID, name and expiration date (in milliseconds) of the
+     * specified profile.
+     */
+    String[] readProfile(File f) {
+        ProvisioningProfile profile = ProvisioningProfile.create(f);
+        return new String[] {profile.getUuid(), profile.getName(),
+                String.valueOf(profile.getExpirationDate().getTime())};
+    }
+
+    private synchronized Properties updateIndex() throws IOException {
+        Properties index = load(indexFile);
+        Properties updated = new Properties();
+        boolean changed = false;
+        for (File f : listProfileFiles()) {
+            String name = f.getName();
+            String stamp = f.length() + ":" + f.lastModified();
+            String sha256 = index.getProperty(name + ".sha256");
+            String uuid = index.getProperty(name + ".uuid");
+            String profileName = index.getProperty(name + ".name");
+            String expires = index.getProperty(name + ".expires");
+            if (!stamp.equals(index.getProperty(name + ".stamp"))) {
+                changed = true;
+                String newSha256 = Digests.sha256(f);
+                if (!newSha256.equals(sha256)) {
+                    uuid = null;
+                }
+                sha256 = newSha256;
+            }
+            if (uuid == null || profileName == null || expires == null) {
+                changed = true;
+                String[] profile = readProfile(f);
+                uuid = profile[0];
+                profileName = profile[1];
+                expires = profile[2];
+            }
+            updated.setProperty(name + ".stamp", stamp);
+            updated.setProperty(name + ".sha256", sha256);
+            updated.setProperty(name + ".uuid", uuid);
+            updated.setProperty(name + ".name", profileName);
+            updated.setProperty(name + ".expires", expires);
+        }
+        if (changed || updated.size() != index.size()) {
+            store(updated, indexFile, "Index of " + profilesDir);
+        }
+        return updated;
+    }
+
+    private static Properties load(File file) {
+        Properties props = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            } catch (IOException e) {
+                props.clear();
+            }
+        }
+        return props;
+    }
+
+    private static void store(Properties props, File file, String comment) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            props.store(out, comment);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.common;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ClassInfo}.
+ */
+public class ClassInfoTest {
+
+    static class Sample implements Comparable<Sample> {
+        private Map<String, StringBuilder> field;
+
+        public int compareTo(Sample o) {
+            return 0;
+        }
+
+        List<Thread> method(Set<Number> arg) throws IOException {
+            new ArrayList<Runnable>();
+            try {
+                Class.forName("java.util.concurrent.Executors");
+            } catch (ClassNotFoundException e) {
+            }
+            return null;
+        }
+    }
+
+    private static byte[] bytes(Class<?> c) throws IOException {
+        try (InputStream in = c.getResourceAsStream("/" + c.getName().replace('.', '/') + ".class")) {
+            byte[] buffer = new byte[64 * 1024];
+            int length = 0;
+            int n;
+            while ((n = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += n;
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(buffer, 0, result, 0, length);
+            return result;
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        ClassInfo info = ClassInfo.parse(bytes(Sample.class));
+        // <init>, compareTo, the bridge compareTo and method
+        assertEquals(4, info.getMethodCount());
+        Set<String> refs = info.getReferences();
+        assertFalse(refs.contains("org/robovm/maven/common/ClassInfoTest$Sample"));
+        for (String s : new String[] {"java/lang/Comparable", "java/util/Map",
+                "java/lang/StringBuilder", "java/util/List", "java/lang/Thread",
+                "java/util/Set", "java/lang/Number", "java/io/IOException",
+                "java/util/ArrayList", "java/util/concurrent/Executors"}) {
+            assertTrue(s, refs.contains(s));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAClassFile() throws Exception {
+        ClassInfo.parse(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.common;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.robovm.compiler.target.ios.SigningIdentity;
+
+/**
+ * Tests {@link SigningCache} using fixture profiles and identities. The
+ * fixture profiles are plain properties files holding the UUID, name and
+ * expiration date which would otherwise be read from a signed
+ * {@code .mobileprovision}.
+ */
+public class SigningCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File profilesDir;
+    private File cacheDir;
+    private File keychainsDir;
+    private final List<String> parsed = new ArrayList<>();
+    private final Map<String, Long> certificateExpirations = new HashMap<>();
+    private int listed;
+
+    @Before
+    public void setUp() throws Exception {
+        profilesDir = tmp.newFolder("profiles");
+        cacheDir = tmp.newFolder("cache");
+        keychainsDir = tmp.newFolder("keychains");
+        writeProfile("c.mobileprovision", "uuid-c", "iOS Team Provisioning Profile: *", days(30));
+        writeProfile("a.mobileprovision", "uuid-a", "iOS Team Provisioning Profile: com.example", days(10));
+        writeProfile("b.mobileprovision", "uuid-b", "Ad Hoc: com.example", days(20));
+        Files.write(new File(keychainsDir, "login.keychain").toPath(), new byte[] {1});
+    }
+
+    private static long days(int days) {
+        return System.currentTimeMillis() + days * 24L * 60 * 60 * 1000;
+    }
+
+    private void writeProfile(String fileName, String uuid, String name, long expires) throws IOException {
+        String content = "uuid=" + uuid + "\nname=" + name + "\nexpires=" + expires + "\n";
+        Files.write(new File(profilesDir, fileName).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private SigningCache newCache(File cacheDir) {
+        return new SigningCache(profilesDir, cacheDir, keychainsDir) {
+            @Override
+            String[] readProfile(File f) {
+                parsed.add(f.getName());
+                Properties props = new Properties();
+                try (InputStream in = new FileInputStream(f)) {
+                    props.load(in);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return new String[] {props.getProperty("uuid"), props.getProperty("name"),
+                        props.getProperty("expires")};
+            }
+
+            @Override
+            Map<String, Long> readCertificateExpirations() {
+                return certificateExpirations;
+            }
+
+            @Override
+            List<SigningIdentity> listSigningIdentities() {
+                listed++;
+                return Arrays.asList(newIdentity("iPhone Developer: Jane Doe (ABCDE12345)", "0011AA"),
+                        newIdentity("iPhone Distribution: Example AB", "2233BB"));
+            }
+        };
+    }
+
+    private static SigningIdentity newIdentity(String name, String fingerprint) {
+        try {
+            Constructor<SigningIdentity> c =
+                    SigningIdentity.class.getDeclaredConstructor(String.class, String.class);
+            c.setAccessible(true);
+            return c.newInstance(name, fingerprint);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<String> names(List<File> files) {
+        List<String> names = new ArrayList<>();
+        for (File f : files) {
+            names.add(f.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testCandidatesAreSortedByExpirationDate() throws Exception {
+        SigningCache cache = newCache(cacheDir);
+        assertEquals(Arrays.asList("c.mobileprovision", "a.mobileprovision"),
+                names(cache.findCandidates("iOS Team")));
+        assertEquals(Arrays.asList("b.mobileprovision", "a.mobileprovision"),
+                names(cache.findCandidates("/com\\.example/")));
+        assertEquals(Arrays.asList("b.mobileprovision"), names(cache.findCandidates("uuid-b")));
+        assertEquals(Arrays.asList(), names(cache.findCandidates("uuid-x")));
+    }
+
+    @Test
+    public void testProfilesAreOnlyParsedOnce() throws Exception {
+        newCache(cacheDir).findCandidates("uuid-a");
+        assertEquals(3, parsed.size());
+        parsed.clear();
+        newCache(cacheDir).findCandidates("uuid-a");
+        assertEquals(Arrays.asList(), parsed);
+    }
+
+    @Test
+    public void testChangedProfileIsParsedAgainEvenIfDirIsUnchanged() throws Exception {
+        SigningCache cache = newCache(cacheDir);
+        cache.findCandidates("uuid-a");
+        parsed.clear();
+
+        long dirModified = profilesDir.lastModified();
+        File b = new File(profilesDir, "b.mobileprovision");
+        writeProfile("b.mobileprovision", "uuid-b2", "Ad Hoc: com.example.renewed", days(40));
+        b.setLastModified(b.lastModified() + 2000);
+        profilesDir.setLastModified(dirModified);
+
+        assertEquals(Arrays.asList("b.mobileprovision"), names(cache.findCandidates("uuid-b2")));
+        assertEquals(Arrays.asList("b.mobileprovision"), parsed);
+        assertEquals(Arrays.asList(), names(cache.findCandidates("uuid-b")));
+    }
+
+    @Test
+    public void testRemovedProfileIsNoCandidate() throws Exception {
+        SigningCache cache = newCache(cacheDir);
+        cache.findCandidates("uuid-a");
+        assertTrue(new File(profilesDir, "a.mobileprovision").delete());
+        assertEquals(Arrays.asList(), names(cache.findCandidates("uuid-a")));
+    }
+
+    @Test
+    public void testExpiredProfileIsNoCandidate() throws Exception {
+        writeProfile("d.mobileprovision", "uuid-d", "iOS Team Provisioning Profile: com.example",
+                days(-1));
+        SigningCache cache = newCache(cacheDir);
+        assertEquals(Arrays.asList(), names(cache.findCandidates("uuid-d")));
+        assertEquals(Arrays.asList("c.mobileprovision", "a.mobileprovision"),
+                names(cache.findCandidates("iOS Team")));
+    }
+
+    @Test
+    public void testSigningIdentitiesAreCachedOnDisk() throws Exception {
+        assertEquals("2233BB", newCache(cacheDir).findSigningIdentity("iPhone Distribution")
+                .getFingerprint());
+        assertEquals(1, listed);
+
+        // A fresh cache dir with a copy of the identities file bypasses the
+        // in-memory cache
+        File otherCacheDir = tmp.newFolder("other");
+        Files.copy(new File(cacheDir, "signing-identities.properties").toPath(),
+                new File(otherCacheDir, "signing-identities.properties").toPath());
+        SigningIdentity identity = newCache(otherCacheDir).findSigningIdentity("iPhone Developer");
+        assertEquals("iPhone Developer: Jane Doe (ABCDE12345)", identity.getName());
+        assertEquals("0011AA", identity.getFingerprint());
+        assertEquals(1, listed);
+    }
+
+    @Test
+    public void testSigningIdentitiesAreListedAgainWhenKeychainsChange() throws Exception {
+        newCache(cacheDir).findSigningIdentity("iPhone Developer");
+        assertEquals(1, listed);
+        File keychain = new File(keychainsDir, "login.keychain");
+        Files.write(keychain.toPath(), new byte[] {1, 2});
+        newCache(cacheDir).findSigningIdentity("iPhone Developer");
+        assertEquals(2, listed);
+    }
+
+    @Test
+    public void testExpiredSigningIdentitiesAreDropped() throws Exception {
+        certificateExpirations.put("0011AA", days(1));
+        certificateExpirations.put("2233BB", System.currentTimeMillis() + 1000);
+        assertNotNull(newCache(cacheDir).findSigningIdentity("iPhone Distribution"));
+        Thread.sleep(1100);
+        try {
+            newCache(cacheDir).findSigningIdentity("iPhone Distribution");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // The expiration dates are stored on disk too
+        File otherCacheDir = tmp.newFolder("other");
+        Files.copy(new File(cacheDir, "signing-identities.properties").toPath(),
+                new File(otherCacheDir, "signing-identities.properties").toPath());
+        assertEquals("0011AA", newCache(otherCacheDir).findSigningIdentity("iPhone Developer")
+                .getFingerprint());
+        try {
+            newCache(otherCacheDir).findSigningIdentity("iPhone Distribution");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(1, listed);
+    }
+}
@@ -65,7 +65,7 @@ public abstract class AbstractIOSSimulatorMojo extends AbstractRoboVMMojo {
             DeviceType deviceType = DeviceType.getBestDeviceType(
                     arch, OS.ios, deviceFamily, deviceName, sdk);
             launchParameters.setDeviceType(deviceType);
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
 
         } catch (Throwable t) {
             throw new MojoExecutionException("Failed to launch IOS Simulator", t);
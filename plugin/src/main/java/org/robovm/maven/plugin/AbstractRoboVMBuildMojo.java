@@ -15,9 +15,18 @@
  */
 package org.robovm.maven.plugin;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -25,12 +34,18 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.robovm.compiler.AppCompiler;
 import org.robovm.compiler.config.Arch;
 import org.robovm.compiler.config.Config;
+import org.robovm.maven.common.BuildFingerprint;
 
 /**
  * Abstract mojo which either archives or installs.
  */
 public abstract class AbstractRoboVMBuildMojo extends AbstractRoboVMMojo {
 
+    /**
+     * Rough estimate of the heap needed to compile a single arch.
+     */
+    private static final long SLICE_HEAP = 1024L * 1024 * 1024;
+
     /**
      * Colon separated list of architectures to include in the archive.
      */
@@ -44,12 +59,36 @@ public abstract class AbstractRoboVMBuildMojo extends AbstractRoboVMMojo {
     @Parameter(property="robovm.enableBitcode")
     protected boolean enableBitcode = false;
 
+    /**
+     * If set to {@code true} and more than one arch is being built, the archs
+     * are compiled concurrently before being linked into a fat binary. The
+     * default is {@code false}.
+     */
+    @Parameter(property="robovm.parallelArchs")
+    protected boolean parallelArchs = false;
+
+    /**
+     * The maximum number of archs to compile concurrently when
+     * {@code parallelArchs} is enabled. By default this is derived from the
+     * compiler threads available to the build and the max heap size.
+     */
+    @Parameter(property="robovm.maxParallelArchs")
+    protected int maxParallelArchs = 0;
+
     protected String getArchs() {
         return archs;
     }
 
     protected abstract boolean shouldArchive();
 
+    private List<Arch> parseArchs() {
+        List<Arch> result = new ArrayList<>();
+        for (String s : getArchs().trim().split(":")) {
+            result.add(Arch.valueOf(s));
+        }
+        return result;
+    }
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
 
@@ -59,21 +98,78 @@ public abstract class AbstractRoboVMBuildMojo extends AbstractRoboVMMojo {
                     .skipInstall(false);
             
             if (getArchs() != null) {
-                List<Arch> archs = new ArrayList<>();
-                for (String s : getArchs().trim().split(":")) {
-                    archs.add(Arch.valueOf(s));
-                }
-                builder.archs(archs);
+                builder.archs(parseArchs());
             }
             builder.enableBitcode(enableBitcode);
-            
-            AppCompiler compiler = new AppCompiler(builder.build());
-            compiler.build();
-            if (shouldArchive()) {
-                compiler.archive();
-            } else {
-                compiler.install();
+
+            String mode = shouldArchive() ? "archive" : "install";
+            BuildFingerprint fingerprint = createFingerprint(builder, mode);
+            fingerprint.put("archs", getArchs())
+                    .put("enableBitcode", String.valueOf(enableBitcode));
+            if (isUpToDate(fingerprint, installDir)) {
+                getLog().info("RoboVM app in " + installDir
+                        + " is up to date, skipping build");
+                return;
+            }
+            prepareTmpDir(fingerprint, mode);
+
+            Map<String, String> request = null;
+            if (isDaemonEnabled()) {
+                request = createDaemonRequest(builder, mode);
+                if (getArchs() != null) {
+                    request.put("archs", getArchs().trim());
+                }
+                request.put("enableBitcode", String.valueOf(enableBitcode));
+            }
+
+            BuildStats stats = new BuildStats();
+            builder.logger(stats.wrap(getRoboVMLogger()));
+            // One config per arch is only needed to sync with the remote cache
+            List<Config> archConfigs = remoteCache != null ? getArchConfigs(builder, stats) : null;
+            Config config = null;
+            try (Closeable cacheLock = lockCache()) {
+                pullFromRemoteCache(archConfigs, stats);
+
+                stats.startPhase("compile");
+                boolean builtInDaemon = false;
+                AppCompiler compiler = null;
+                // Compiler threads are only reserved while compiling so that
+                // other builds can use them while this one is e.g. waiting
+                // for a lock or archiving
+                try (CompilerScheduler.Budget budget = acquireCompilerThreads(!isDaemonEnabled())) {
+                    int threads = budget.getThreads();
+                    if (request != null) {
+                        request.put("threads", String.valueOf(threads));
+                        builtInDaemon = buildInDaemon(request);
+                    }
+                    if (!builtInDaemon) {
+                        builder.threads(threads);
+                        config = builder.build();
+                        if (parallelArchs && config.getArchs().size() > 1) {
+                            buildSlices(builder, config.getArchs(), threads, stats);
+                        }
+                        compiler = new AppCompiler(config);
+                        compiler.build();
+                    }
+                }
+                if (compiler != null) {
+                    if (shouldArchive()) {
+                        stats.startPhase("archive");
+                        compiler.archive();
+                    } else {
+                        stats.startPhase("install");
+                        compiler.install();
+                    }
+                }
+                pushToRemoteCache(archConfigs, stats);
+            }
+            storeFingerprint(fingerprint, mode);
+            if (config == null) {
+                // Built in the daemon
+                config = builder.build();
             }
+            reportBuildStats(stats, config, mode);
+            collectCache();
 
         } catch (IOException e) {
             if (shouldArchive()) {
@@ -81,6 +177,110 @@ public abstract class AbstractRoboVMBuildMojo extends AbstractRoboVMMojo {
             } else {
                 throw new MojoExecutionException("Failed to install", e);
             }
+        } finally {
+            releaseDistLock();
+            writeMetrics();
+        }
+    }
+
+    /**
+     * Returns one config per arch of the build configured by the specified
+     * builder, each using the compiled class cache of that arch. The configs
+     * are copies of the builder rather than configured from scratch.
+     */
+    private List<Config> getArchConfigs(Config.Builder builder, BuildStats stats)
+            throws IOException, MojoExecutionException {
+
+        Config.Builder copy = copyBuilder(builder);
+        if (getArchs() != null) {
+            copy.archs(parseArchs());
+        }
+        copy.enableBitcode(enableBitcode);
+        copy.logger(stats.wrap(getRoboVMLogger()));
+        Config config = copy.build();
+        if (config.getArchs().size() <= 1) {
+            return Collections.singletonList(config);
+        }
+        List<Config> configs = new ArrayList<>();
+        for (Arch arch : config.getArchs()) {
+            Config.Builder archBuilder = copyBuilder(builder);
+            archBuilder.archs(Collections.singletonList(arch));
+            archBuilder.enableBitcode(enableBitcode);
+            archBuilder.logger(stats.wrap(getRoboVMLogger()));
+            configs.add(archBuilder.build());
+        }
+        return configs;
+    }
+
+    /**
+     * Compiles each of the specified archs concurrently, each with its own
+     * temporary directory. This populates the compiled class cache for all
+     * archs at once, so the following multi-arch build only has to link the
+     * slices and merge them into a fat binary. The slices stop after
+     * compilation. The specified compiler threads are split between the
+     * slices.
+     */
+    private void buildSlices(Config.Builder builder, List<Arch> archs, int threads,
+            BuildStats stats) throws MojoExecutionException {
+        int parallelism = maxParallelArchs;
+        if (parallelism <= 0) {
+            parallelism = Math.min(threads / 2,
+                    (int) (Runtime.getRuntime().maxMemory() / SLICE_HEAP));
+        }
+        parallelism = Math.min(parallelism, archs.size());
+        if (parallelism < 2) {
+            getLog().debug("Not enough compiler threads or heap to compile archs in parallel");
+            return;
+        }
+        int threadsPerSlice = Math.max(1, threads / parallelism);
+
+        final List<Config> configs = new ArrayList<>();
+        try {
+            for (Arch arch : archs) {
+                File sliceTmpDir = new File(getTmpDir(), "slice-" + arch);
+                sliceTmpDir.mkdirs();
+                Config.Builder sliceBuilder = copyBuilder(builder);
+                sliceBuilder.archs(Collections.singletonList(arch));
+                sliceBuilder.tmpDir(sliceTmpDir);
+                sliceBuilder.skipInstall(true);
+                // The main build links the slices
+                sliceBuilder.skipLinking(true);
+                sliceBuilder.enableBitcode(enableBitcode);
+                sliceBuilder.threads(threadsPerSlice);
+                sliceBuilder.logger(stats.wrap(getRoboVMLogger()));
+                configs.add(sliceBuilder.build());
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to configure arch slices", e);
+        }
+
+        getLog().info("Compiling " + archs.size() + " archs, " + parallelism
+                + " at a time using " + threadsPerSlice + " threads each");
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (final Config config : configs) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        new AppCompiler(config).build();
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    throw new MojoExecutionException("Failed to compile arch "
+                            + archs.get(i), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted while compiling arch "
+                            + archs.get(i), e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
         }
     }
 }
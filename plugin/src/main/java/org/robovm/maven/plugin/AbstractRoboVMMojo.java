@@ -15,12 +15,27 @@
  */
 package org.robovm.maven.plugin;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.util.Collection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.artifact.Artifact;
@@ -30,20 +45,21 @@ import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
 import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.archiver.UnArchiver;
 import org.codehaus.plexus.archiver.manager.ArchiverManager;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
-import org.codehaus.plexus.util.xml.PrettyPrintXMLWriter;
-import org.codehaus.plexus.util.xml.XMLWriter;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
-import org.codehaus.plexus.util.xml.Xpp3DomWriter;
+import org.codehaus.plexus.util.xml.Xpp3DomBuilder;
 import org.robovm.compiler.AppCompiler;
 import org.robovm.compiler.Version;
 import org.robovm.compiler.config.Arch;
@@ -51,13 +67,24 @@ import org.robovm.compiler.config.Config;
 import org.robovm.compiler.config.Config.Home;
 import org.robovm.compiler.config.OS;
 import org.robovm.compiler.log.Logger;
+import org.robovm.compiler.target.LaunchParameters;
 import org.robovm.compiler.target.ios.ProvisioningProfile;
 import org.robovm.compiler.target.ios.SigningIdentity;
+import org.robovm.maven.common.BuildFingerprint;
+import org.robovm.maven.common.Digests;
+import org.robovm.maven.common.SigningCache;
 
 /**
  */
 public abstract class AbstractRoboVMMojo extends AbstractMojo {
 
+    private static final String UNPACKED_MARKER = ".robovm-unpacked";
+
+    /**
+     * The modes passed to {@link #createFingerprint(Config.Builder, String)}.
+     */
+    private static final String[] FINGERPRINT_MODES = {"launch", "install", "archive"};
+
     @Component
     protected MavenProject project;
 
@@ -70,6 +97,15 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
     @Parameter(defaultValue="${localRepository}")
     private ArtifactRepository localRepository;
 
+    @Parameter(defaultValue="${session}", readonly=true)
+    private MavenSession session;
+
+    @Parameter(defaultValue="${plugin}", readonly=true)
+    private PluginDescriptor pluginDescriptor;
+
+    @Parameter(defaultValue="${mojoExecution}", readonly=true)
+    private MojoExecution mojoExecution;
+
     /**
      * Base directory to extract RoboVM native distribution files into. The
      * robovm-dist bundle will be downloaded from Maven and extracted into this
@@ -109,6 +145,14 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
     @Parameter(property="robovm.provisioningProfile", alias="robovm.iosProvisioningProfile")
     protected String provisioningProfile;
 
+    /**
+     * The directory to look for the provisioning profile specified using
+     * {@code provisioningProfile} in. Default is
+     * {@code ~/Library/MobileDevice/Provisioning Profiles}.
+     */
+    @Parameter(property="robovm.provisioningProfilesDir")
+    protected File provisioningProfilesDir;
+
     /**
      * Whether the app should be signed or not. Unsigned apps can only be run on jailbroken
      * devices.
@@ -179,9 +223,204 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
     @Parameter(property="robovm.debugPort")
     protected int debugPort = -1;
 
+    /**
+     * If set to {@code true} the app will always be recompiled, even if
+     * neither the RoboVM config nor any of the build inputs have changed since
+     * the last successful build.
+     */
+    @Parameter(property="robovm.forceBuild")
+    protected boolean forceBuild = false;
+
+    /**
+     * If set to {@code false} the temporary directory used by the RoboVM
+     * compiler ({@code target/robovm.tmp}) is wiped before every build. By
+     * default the files produced by the previous build are kept as long as
+     * the config is unchanged and only stale files are removed.
+     */
+    @Parameter(property="robovm.incrementalTmpDir", defaultValue="true")
+    protected boolean incrementalTmpDir = true;
+
+    /**
+     * If set to {@code true} (the default) {@code .tar.gz} archives, such as
+     * the robovm-dist bundle, are extracted using multiple threads. Set to
+     * {@code false} to use the Plexus archiver instead.
+     */
+    @Parameter(property="robovm.parallelUnpack", defaultValue="true")
+    protected boolean parallelUnpack = true;
+
+    /**
+     * How often snapshot versions of RoboVM artifacts, e.g. the robovm-dist
+     * bundle, are updated from the remote repositories. One of
+     * {@code always}, {@code session} (once per Maven build), {@code daily},
+     * {@code interval:N} (every {@code N} minutes) or {@code never}. Default
+     * is {@code session}.
+     */
+    @Parameter(property="robovm.snapshotUpdatePolicy", defaultValue="session")
+    protected String snapshotUpdatePolicy = ResolutionCache.SESSION;
+
+    /**
+     * Directory of a content-addressed store shared by all unpacked RoboVM
+     * dists, e.g. {@code ~/.robovm/dist-store}. If set, each distinct file of
+     * the unpacked dists is kept once in the store and hard linked into the
+     * dist directories, which saves a lot of disk space when several RoboVM
+     * versions are in use. Use the {@code robovm:dist-gc} goal to evict dists
+     * which haven't been used in a while.
+     */
+    @Parameter(property="robovm.distStore")
+    protected File distStore;
+
+    /**
+     * If set to {@code true} the app is compiled by a long-lived compiler
+     * daemon instead of inside the Maven JVM. The daemon is started on first
+     * use and reused by later builds, which saves the time spent loading and
+     * warming up the compiler. The daemon shuts down after having been idle
+     * for {@code daemonIdleTimeout} minutes. Ignored when using a RoboVM
+     * development home.
+     */
+    @Parameter(property="robovm.daemon")
+    protected boolean daemon = false;
+
+    /**
+     * The number of minutes the compiler daemon stays alive without receiving
+     * any builds. Default is 30.
+     */
+    @Parameter(property="robovm.daemonIdleTimeout", defaultValue="30")
+    protected int daemonIdleTimeout = 30;
+
+    /**
+     * Whitespace separated arguments passed to the JVM of the compiler
+     * daemon, e.g. {@code -Xmx4g}. Daemons started with different arguments
+     * are kept separate.
+     */
+    @Parameter(property="robovm.daemonJvmArgs")
+    protected String daemonJvmArgs;
+
+    /**
+     * If set to {@code true} the app is compiled in a new JVM started for
+     * each build instead of inside the Maven JVM. This allows sizing the heap
+     * of the compiler independently of Maven using {@code forkJvmArgs} and
+     * keeps concurrent builds in a parallel reactor from competing for the
+     * same heap. The memory is released when the build is done. Ignored if
+     * {@code daemon} is enabled or when using a RoboVM development home.
+     */
+    @Parameter(property="robovm.fork")
+    protected boolean fork = false;
+
+    /**
+     * Whitespace separated arguments passed to the forked compiler JVM, e.g.
+     * {@code -Xmx4g -XX:+UseParallelGC}.
+     */
+    @Parameter(property="robovm.forkJvmArgs")
+    protected String forkJvmArgs;
+
+    /**
+     * The maximum number of compiler threads used by all RoboVM builds
+     * running concurrently in the same Maven session, e.g. when building a
+     * reactor with {@code -T}. The threads are shared evenly between the
+     * builds compiling at the same time. Default is the number of available
+     * cores.
+     */
+    @Parameter(property="robovm.maxCompilerThreads")
+    protected int maxCompilerThreads = 0;
+
+    /**
+     * Location of a remote tier for the compiled class cache in
+     * {@code cacheDir} which can be shared by several machines, e.g.
+     * ephemeral CI agents. Either the URL of an HTTP server supporting
+     * {@code GET} and {@code PUT} or a directory, e.g. on a network share.
+     * Compiled classes missing from the local cache are fetched before
+     * compiling and classes compiled locally are uploaded afterwards.
+     */
+    @Parameter(property="robovm.remoteCache")
+    protected String remoteCache;
+
+    /**
+     * If set to {@code false} classes compiled locally are not uploaded to
+     * the {@code remoteCache}, e.g. for untrusted pull request builds.
+     * Default is {@code true}.
+     */
+    @Parameter(property="robovm.remoteCachePush", defaultValue="true")
+    protected boolean remoteCachePush = true;
+
+    /**
+     * If set to {@code true} the least recently used classes are evicted
+     * from the compiled class cache after each build until the cache is
+     * within {@code cacheMaxSize} and {@code cacheMaxAge}. Skipped while
+     * other builds are using the cache. See also the {@code robovm:cache-gc}
+     * goal.
+     */
+    @Parameter(property="robovm.cacheGc")
+    protected boolean cacheGc = false;
+
+    /**
+     * The maximum size of the compiled class cache enforced when
+     * {@code cacheGc} is enabled, e.g. {@code 20G}. By default the size is
+     * not limited.
+     */
+    @Parameter(property="robovm.cacheMaxSize")
+    protected String cacheMaxSize;
+
+    /**
+     * Classes which haven't been used for this many days are evicted from
+     * the compiled class cache when {@code cacheGc} is enabled.
+     */
+    @Parameter(property="robovm.cacheMaxAge", defaultValue="30")
+    protected int cacheMaxAge = 30;
+
+    /**
+     * The number of slowest compiling classes to report after each build.
+     * Statistics about the build are also written to
+     * {@code target/robovm-build-stats.json}.
+     */
+    @Parameter(property="robovm.statsTopClasses", defaultValue="10")
+    protected int statsTopClasses = 10;
+
+    /**
+     * Directory to write the phase timings of each build to in the
+     * OpenMetrics text format, e.g. the directory scraped by the textfile
+     * collector of the Prometheus node exporter. The timings are always
+     * written to {@code target/robovm-metrics.json} and
+     * {@code target/robovm-metrics.prom}.
+     */
+    @Parameter(property="robovm.metricsDir")
+    protected File metricsDir;
+
+    /**
+     * If set, the RoboVM work of all modules and goals of the Maven session
+     * is recorded as Chrome trace events in this file, e.g.
+     * {@code target/robovm-trace.json}. Relative paths are resolved against
+     * the directory Maven was started in. Load the file into
+     * {@code chrome://tracing} or Perfetto to see how the work was spread
+     * across the threads of a parallel build.
+     */
+    @Parameter(property="robovm.trace")
+    protected String trace;
+
     private Logger roboVMLogger;
 
+    private File homeDir;
+
+    private BuildMetrics metrics;
+
+    private File distArchive;
+
+    private Closeable distLock;
+
+    private boolean devHome;
+
+    private Home resolvedHome;
+
+    private SigningIdentity resolvedSignIdentity;
+
+    private ProvisioningProfile resolvedProvisioningProfile;
+
     protected Config.Builder configure(Config.Builder builder) throws MojoExecutionException {
+        try (BuildMetrics.Timer timer = getMetrics().start("configure")) {
+            return configureBuilder(builder);
+        }
+    }
+
+    private Config.Builder configureBuilder(Config.Builder builder) throws MojoExecutionException {
         builder.logger(getRoboVMLogger());
 
         // load config base file if it exists (and properties)
@@ -190,6 +429,11 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
             builder.os(OS.valueOf(os));
         }
 
+        ConfigCache configCache = ConfigCache.get(session);
+        List<Properties> properties = new ArrayList<>();
+        List<ConfigSource> sources = new ArrayList<>();
+        StringBuilder key = new StringBuilder(project.getBasedir().getAbsolutePath());
+
         if (propertiesFile != null) {
             if (!propertiesFile.exists()) {
                 throw new MojoExecutionException(
@@ -200,7 +444,9 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
                 getLog().debug(
                         "Including properties file in RoboVM compiler config: "
                                 + propertiesFile.getAbsolutePath());
-                builder.addProperties(propertiesFile);
+                properties.add(configCache.getProperties(propertiesFile));
+                key.append('\n').append(propertiesFile.getAbsolutePath())
+                        .append(':').append(configCache.getSha256(propertiesFile));
             } catch (IOException e) {
                 throw new MojoExecutionException(
                         "Failed to add properties file to RoboVM config: "
@@ -208,13 +454,20 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
             }
         } else {
             try {
-                builder.readProjectProperties(project.getBasedir(), false);
+                for (File f : getPropertiesFiles()) {
+                    properties.add(configCache.getProperties(f));
+                    key.append('\n').append(f.getAbsolutePath())
+                            .append(':').append(configCache.getSha256(f));
+                }
             } catch (IOException e) {
                 throw new MojoExecutionException(
                         "Failed to read RoboVM project properties file(s) in "
                                 + project.getBasedir().getAbsolutePath(), e);
             }
         }
+        for (Properties props : properties) {
+            builder.addProperties(props);
+        }
 
         if (configFile != null) {
             if (!configFile.exists()) {
@@ -226,15 +479,25 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
                 getLog().debug(
                         "Loading config file for RoboVM compiler: "
                                 + configFile.getAbsolutePath());
-                builder.read(configFile);
-            } catch (Exception e) {
+                sources.add(new ConfigSource(configFile.getAbsolutePath(),
+                        configCache.getSha256(configFile), configCache.getContent(configFile),
+                        configFile.getAbsoluteFile().getParentFile(),
+                        "Failed to read RoboVM config file: " + configFile));
+            } catch (IOException e) {
                 throw new MojoExecutionException(
                         "Failed to read RoboVM config file: " + configFile);
             }
         } else {
+            File projectConfigFile = new File(project.getBasedir(), "robovm.xml");
             try {
-                builder.readProjectConfig(project.getBasedir(), false);
-            } catch (Exception e) {
+                if (projectConfigFile.exists()) {
+                    sources.add(new ConfigSource(projectConfigFile.getAbsolutePath(),
+                            configCache.getSha256(projectConfigFile),
+                            configCache.getContent(projectConfigFile), project.getBasedir(),
+                            "Failed to read project RoboVM config file in "
+                                    + project.getBasedir().getAbsolutePath()));
+                }
+            } catch (IOException e) {
                 throw new MojoExecutionException(
                         "Failed to read project RoboVM config file in "
                                 + project.getBasedir().getAbsolutePath(), e);
@@ -252,26 +515,23 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
             getLog().debug("Reading RoboVM plugin configuration from " + p.getFile().getAbsolutePath());
             Xpp3Dom configDom = (Xpp3Dom) plugin.getConfiguration();
             if (configDom != null && configDom.getChild("config") != null) {
-                StringWriter sw = new StringWriter();
-                XMLWriter xmlWriter = new PrettyPrintXMLWriter(sw, "UTF-8", null);
-                Xpp3DomWriter.write(xmlWriter, configDom.getChild("config"));
-                try {
-                    builder.read(new StringReader(sw.toString()),
-                            project.getBasedir());
-                } catch (Exception e) {
-                    throw new MojoExecutionException(
-                            "Failed to read RoboVM config embedded in POM", e);
-                }
+                String xml = ConfigCache.serialize(configDom.getChild("config"));
+                sources.add(new ConfigSource(p.getFile().getAbsolutePath(),
+                        Digests.sha256(xml), xml, project.getBasedir(),
+                        "Failed to read RoboVM config embedded in POM"));
             }
         }
 
-        File tmpDir = new File(project.getBuild().getDirectory(), "robovm.tmp");
-        try {
-            FileUtils.deleteDirectory(tmpDir);
-        } catch (IOException e) {
-            throw new MojoExecutionException(
-                    "Failed to clean output dir " + tmpDir, e);
+        if (!sources.isEmpty()) {
+            for (ConfigSource source : sources) {
+                key.append('\n').append(source.path).append(':').append(source.sha256)
+                        .append(':').append(source.baseDir.getAbsolutePath());
+            }
+            readConfigSources(builder, configCache, Digests.sha256(key.toString()),
+                    properties, sources);
         }
+
+        File tmpDir = getTmpDir();
         tmpDir.mkdirs();
 
         Home home = null;
@@ -279,45 +539,73 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
             home = Home.find();
         } catch (Throwable t) {}
         if (home == null || !home.isDev()) {
-            home = new Config.Home(unpackRoboVMDist());
+            homeDir = unpackRoboVMDist();
+            home = new Config.Home(homeDir);
         }
-        builder.home(home)
-                .tmpDir(tmpDir)
+        devHome = home.isDev();
+        resolvedHome = home;
+
+        resolvedSignIdentity = null;
+        resolvedProvisioningProfile = null;
+        if (!skipSigning) {
+            if (signIdentity != null) {
+                getLog().debug(
+                        "Using explicit signing identity: " + signIdentity);
+                resolvedSignIdentity = new SigningCache(provisioningProfilesDir, cacheDir)
+                        .findSigningIdentity(signIdentity);
+            }
+
+            if (provisioningProfile != null) {
+                getLog().debug(
+                        "Using explicit provisioning profile: "
+                                + provisioningProfile);
+                try {
+                    resolvedProvisioningProfile = new SigningCache(provisioningProfilesDir, cacheDir)
+                            .findProvisioningProfile(provisioningProfile);
+                } catch (IOException e) {
+                    throw new MojoExecutionException(
+                            "Failed to look up provisioning profile " + provisioningProfile, e);
+                }
+            }
+        }
+
+        applyResolvedSettings(builder);
+        addClasspathEntries(builder);
+        
+        return builder;
+    }
+
+    /**
+     * Applies the settings resolved by {@link #configure(Config.Builder)}
+     * which aren't part of the config XML: the RoboVM home, the output
+     * directories and the debug and signing settings.
+     */
+    private void applyResolvedSettings(Config.Builder builder) {
+        builder.home(resolvedHome)
+                .tmpDir(getTmpDir())
                 .skipInstall(true)
                 .installDir(installDir);
-        if (home.isDev()) {
+        if (resolvedHome.isDev()) {
             builder.useDebugLibs(Boolean.getBoolean("robovm.useDebugLibs"));
             builder.dumpIntermediates(true);
         }
 
         if (debug != null && !debug.equals("false")) {
             builder.debug(true);
-            if (debugPort != -1) {
-                builder.addPluginArgument("debug:jdwpport=" + debugPort);
-            }
-            if ("clientmode".equals(debug)) {
-                builder.addPluginArgument("debug:clientmode=true");
+            for (String arg : getPluginArguments()) {
+                builder.addPluginArgument(arg);
             }
         }
         
         if (skipSigning) {
             builder.iosSkipSigning(true);
         } else {
-            if (signIdentity != null) {
-                getLog().debug(
-                        "Using explicit signing identity: " + signIdentity);
-                builder.iosSignIdentity(SigningIdentity.find(
-                        SigningIdentity.list(), signIdentity));
+            if (resolvedSignIdentity != null) {
+                builder.iosSignIdentity(resolvedSignIdentity);
             }
-
-            if (provisioningProfile != null) {
-                getLog().debug(
-                        "Using explicit provisioning profile: "
-                                + provisioningProfile);
-                builder.iosProvisioningProfile(ProvisioningProfile.find(
-                        ProvisioningProfile.list(), provisioningProfile));
+            if (resolvedProvisioningProfile != null) {
+                builder.iosProvisioningProfile(resolvedProvisioningProfile);
             }
-
             if (keychainPassword != null) {
                 builder.keychainPassword(keychainPassword);
             } else if (keychainPasswordFile != null) {
@@ -328,7 +616,9 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
         if (cacheDir != null) {
             builder.cacheDir(cacheDir);
         }
+    }
 
+    private void addClasspathEntries(Config.Builder builder) throws MojoExecutionException {
         builder.clearClasspathEntries();
 
         // configure the runtime classpath
@@ -347,8 +637,106 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
             throw new MojoExecutionException(
                     "Error resolving application classpath for RoboVM build", e);
         }
-        
-        return builder;
+    }
+
+    /**
+     * Returns a new builder with the same settings as the specified builder,
+     * which must have been set up by {@link #configure(Config.Builder)}.
+     * Unlike {@code configure()} this doesn't read any config files, resolve
+     * the dist or look up signing identities again. Settings which aren't
+     * part of the config XML and have been changed after {@code configure()}
+     * returned, e.g. the number of threads, aren't copied.
+     */
+    protected Config.Builder copyBuilder(Config.Builder builder) throws MojoExecutionException {
+        try {
+            StringWriter sw = new StringWriter();
+            builder.write(sw, project.getBasedir());
+            Config.Builder copy = new Config.Builder();
+            copy.read(new StringReader(sw.toString()), project.getBasedir());
+            copy.logger(getRoboVMLogger());
+            applyResolvedSettings(copy);
+            addClasspathEntries(copy);
+            return copy;
+        } catch (MojoExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MojoExecutionException("Failed to copy RoboVM config", e);
+        }
+    }
+
+    private static class ConfigSource {
+        final String path;
+        final String sha256;
+        final String content;
+        final File baseDir;
+        final String failureMessage;
+
+        ConfigSource(String path, String sha256, String content, File baseDir,
+                String failureMessage) {
+            this.path = path;
+            this.sha256 = sha256;
+            this.content = content;
+            this.baseDir = baseDir;
+            this.failureMessage = failureMessage;
+        }
+    }
+
+    /**
+     * Reads the specified config sources into the builder. The sources are
+     * parsed into a template builder the first time a key is seen in the
+     * session and the config written by the template is cached, so other
+     * goals and executions of this module with the same sources read the
+     * already merged config in a single pass.
+     */
+    private void readConfigSources(Config.Builder builder, ConfigCache configCache,
+            String key, List<Properties> properties, List<ConfigSource> sources)
+            throws MojoExecutionException {
+
+        String xml = configCache.getResolvedConfig(key);
+        if (xml == null) {
+            Config.Builder template;
+            try {
+                template = new Config.Builder();
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to create RoboVM config", e);
+            }
+            for (Properties props : properties) {
+                template.addProperties(props);
+            }
+            for (ConfigSource source : sources) {
+                try {
+                    template.read(new StringReader(source.content), source.baseDir);
+                } catch (Exception e) {
+                    throw new MojoExecutionException(source.failureMessage, e);
+                }
+            }
+            try {
+                StringWriter sw = new StringWriter();
+                template.write(sw, project.getBasedir());
+                xml = sw.toString();
+            } catch (Exception e) {
+                throw new MojoExecutionException("Failed to write RoboVM config", e);
+            }
+            configCache.putResolvedConfig(key, xml);
+        } else {
+            getLog().debug("Using cached RoboVM config for " + project.getBasedir());
+        }
+        try {
+            builder.read(new StringReader(xml), project.getBasedir());
+        } catch (Exception e) {
+            throw new MojoExecutionException("Failed to read RoboVM config", e);
+        }
+    }
+
+    private List<String> getPluginArguments() {
+        List<String> args = new ArrayList<>();
+        if (debugPort != -1) {
+            args.add("debug:jdwpport=" + debugPort);
+        }
+        if ("clientmode".equals(debug)) {
+            args.add("debug:clientmode=true");
+        }
+        return args;
     }
 
     protected AppCompiler build(OS os, Arch arch, String targetType)
@@ -363,70 +751,684 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
             throw new MojoExecutionException(e.getMessage(), e);
         }
 
-        configure(builder).os(os).arch(arch).targetType(targetType);
-        
-        // execute the RoboVM build
-
         try {
 
-            getLog().info(
-                    "Compiling RoboVM app, this could take a while, especially the first time round");
-            AppCompiler compiler = new AppCompiler(builder.build());
-            compiler.build();
+            configure(builder).os(os).arch(arch).targetType(targetType);
+
+            BuildFingerprint fingerprint = createFingerprint(builder, "launch");
+            boolean upToDate = isUpToDate(fingerprint, getTmpDir());
+
+            // execute the RoboVM build
+
+            BuildStats stats = new BuildStats();
+            builder.logger(stats.wrap(getRoboVMLogger()));
+            AppCompiler compiler;
+            if (upToDate) {
+                getLog().info("RoboVM app is up to date, skipping compilation");
+                compiler = new AppCompiler(builder.build());
+            } else {
+                prepareTmpDir(fingerprint, "launch");
+                getLog().info(
+                        "Compiling RoboVM app, this could take a while, especially the first time round");
+                Map<String, String> request = null;
+                if (isDaemonEnabled()) {
+                    request = createDaemonRequest(builder, "launch");
+                    request.put("os", os.name());
+                    request.put("arch", arch.name());
+                    request.put("targetType", targetType);
+                }
+                // The config of the app is only built once the compiler
+                // threads are known. The remote cache needs one beforehand.
+                List<Config> cacheConfigs = null;
+                if (remoteCache != null) {
+                    Config.Builder cacheBuilder = copyBuilder(builder);
+                    cacheBuilder.os(os).arch(arch).targetType(targetType);
+                    cacheBuilder.logger(stats.wrap(getRoboVMLogger()));
+                    cacheConfigs = Collections.singletonList(cacheBuilder.build());
+                }
+                try (Closeable cacheLock = lockCache()) {
+                    pullFromRemoteCache(cacheConfigs, stats);
+                    stats.startPhase("compile");
+                    boolean builtInDaemon = false;
+                    try (CompilerScheduler.Budget budget = acquireCompilerThreads(!isDaemonEnabled())) {
+                        if (request != null) {
+                            request.put("threads", String.valueOf(budget.getThreads()));
+                            builtInDaemon = buildInDaemon(request);
+                        }
+                        builder.threads(budget.getThreads());
+                        compiler = new AppCompiler(builder.build());
+                        if (!builtInDaemon) {
+                            compiler.build();
+                        }
+                    }
+                    pushToRemoteCache(cacheConfigs, stats);
+                }
+                storeFingerprint(fingerprint, "launch");
+                reportBuildStats(stats, compiler.getConfig(), "launch");
+                collectCache();
+            }
 
             return compiler;
 
         } catch (IOException e) {
             throw new MojoExecutionException(
                     "Error building RoboVM executable for app", e);
+        } finally {
+            releaseDistLock();
+            writeMetrics();
+        }
+    }
+
+    /**
+     * Launches the app built by {@link #build(OS, Arch, String)} and records
+     * the time until it exits.
+     */
+    protected void launch(AppCompiler compiler, LaunchParameters launchParameters) throws Throwable {
+        try (BuildMetrics.Timer timer = getMetrics().start("launch")) {
+            compiler.launch(launchParameters);
+        } finally {
+            writeMetrics();
+        }
+    }
+
+    protected BuildMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new BuildMetrics(project.getGroupId() + ":" + project.getArtifactId(),
+                    mojoExecution != null ? mojoExecution.getGoal() : "unknown");
+            if (trace != null) {
+                File traceFile = new File(trace);
+                if (!traceFile.isAbsolute() && session != null) {
+                    traceFile = new File(session.getExecutionRootDirectory(), trace);
+                }
+                metrics.setTrace(SessionTrace.get(session, traceFile.getAbsoluteFile()));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Writes the phase timings recorded so far to
+     * {@code target/robovm-metrics.json}, {@code target/robovm-metrics.prom}
+     * and {@link #metricsDir}. Failures are logged but don't fail the build.
+     */
+    protected void writeMetrics() {
+        BuildMetrics metrics = getMetrics();
+        File dir = new File(project.getBuild().getDirectory());
+        try {
+            BuildMetrics.write(new File(dir, "robovm-metrics.json"), metrics.toJson());
+            String openMetrics = metrics.toOpenMetrics();
+            BuildMetrics.write(new File(dir, "robovm-metrics.prom"), openMetrics);
+            if (metricsDir != null) {
+                String name = "robovm_" + project.getGroupId() + "_" + project.getArtifactId()
+                        + "_" + (mojoExecution != null ? mojoExecution.getGoal() : "unknown");
+                BuildMetrics.write(new File(metricsDir, name.replaceAll("[^A-Za-z0-9_.-]", "_")
+                        + ".prom"), openMetrics);
+            }
+            metrics.writeTrace();
+        } catch (IOException e) {
+            getLog().warn("Failed to write RoboVM build metrics: " + e);
         }
     }
 
+    /**
+     * Returns {@code true} if builds should be delegated to the compiler
+     * daemon or a forked compiler JVM.
+     */
+    protected boolean isDaemonEnabled() {
+        return (daemon || fork) && !devHome && homeDir != null;
+    }
+
+    /**
+     * Creates a request for the compiler daemon describing the build
+     * configured by {@link #configure(Config.Builder)}. {@code mode} is one
+     * of {@code launch}, {@code install} or {@code archive}. Settings which
+     * aren't part of the serialized config are passed separately.
+     */
+    protected Map<String, String> createDaemonRequest(Config.Builder builder, String mode)
+            throws IOException {
+
+        Map<String, String> request = new HashMap<>();
+        StringWriter sw = new StringWriter();
+        builder.write(sw, project.getBasedir());
+        request.put("config", sw.toString());
+        request.put("mode", mode);
+        request.put("basedir", project.getBasedir().getAbsolutePath());
+        request.put("home", homeDir.getAbsolutePath());
+        request.put("tmpDir", getTmpDir().getAbsolutePath());
+        request.put("installDir", installDir.getAbsolutePath());
+        request.put("skipInstall", String.valueOf("launch".equals(mode)));
+        StringBuilder props = new StringBuilder();
+        for (File f : getPropertiesFiles()) {
+            props.append(props.length() > 0 ? File.pathSeparator : "").append(f.getAbsolutePath());
+        }
+        if (props.length() > 0) {
+            request.put("propertiesFiles", props.toString());
+        }
+        if (cacheDir != null) {
+            request.put("cacheDir", cacheDir.getAbsolutePath());
+        }
+        if (debug != null && !debug.equals("false")) {
+            request.put("debug", "true");
+            List<String> pluginArguments = getPluginArguments();
+            if (!pluginArguments.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (String arg : pluginArguments) {
+                    sb.append(sb.length() > 0 ? "\n" : "").append(arg);
+                }
+                request.put("pluginArguments", sb.toString());
+            }
+        }
+        request.put("skipSigning", String.valueOf(skipSigning));
+        if (signIdentity != null) {
+            request.put("signIdentity", signIdentity);
+        }
+        if (provisioningProfile != null) {
+            request.put("provisioningProfile", provisioningProfile);
+        }
+        if (provisioningProfilesDir != null) {
+            request.put("provisioningProfilesDir", provisioningProfilesDir.getAbsolutePath());
+        }
+        if (keychainPassword != null) {
+            request.put("keychainPassword", keychainPassword);
+        } else if (keychainPasswordFile != null) {
+            request.put("keychainPasswordFile", keychainPasswordFile.getAbsolutePath());
+        }
+        return request;
+    }
+
+    /**
+     * Runs the specified build in the compiler daemon or, if {@code fork} is
+     * enabled, in a forked compiler JVM. Returns {@code false} if the daemon
+     * couldn't be used, in which case the caller should build in-process
+     * instead.
+     */
+    protected boolean buildInDaemon(Map<String, String> request) throws MojoExecutionException {
+        Set<File> classpath = new LinkedHashSet<>();
+        classpath.add(pluginDescriptor.getPluginArtifact().getFile());
+        for (Artifact artifact : pluginDescriptor.getArtifacts()) {
+            classpath.add(artifact.getFile());
+        }
+        if (!daemon) {
+            return buildInFork(new ArrayList<>(classpath), request);
+        }
+        List<String> jvmArgs = splitJvmArgs(daemonJvmArgs);
+        CompilerDaemonClient client = new CompilerDaemonClient(
+                new File(System.getProperty("user.home"), ".robovm/daemon"),
+                new ArrayList<>(classpath), jvmArgs, new File(request.get("home")),
+                daemonIdleTimeout * 60, getLog());
+        try {
+            client.build(request);
+            return true;
+        } catch (CompilerDaemonClient.BuildFailedException e) {
+            throw new MojoExecutionException("RoboVM compiler daemon failed to build app:\n"
+                    + e.getMessage(), e);
+        } catch (IOException e) {
+            getLog().warn("Failed to use the RoboVM compiler daemon, building in-process instead: " + e);
+            return false;
+        }
+    }
+
+    private boolean buildInFork(List<File> classpath, Map<String, String> request)
+            throws MojoExecutionException {
+
+        List<String> jvmArgs = splitJvmArgs(forkJvmArgs);
+        getLog().info("Compiling in a forked JVM" + (jvmArgs.isEmpty() ? "" : " with " + jvmArgs));
+        try {
+            new CompilerFork(classpath, jvmArgs, getLog()).build(request);
+            return true;
+        } catch (CompilerDaemonClient.BuildFailedException e) {
+            throw new MojoExecutionException("Forked RoboVM compiler failed to build app:\n"
+                    + e.getMessage(), e);
+        } catch (IOException e) {
+            // Most likely the JVM crashed or couldn't be started with the
+            // specified arguments. Building in-process would defeat the
+            // purpose of forking.
+            throw new MojoExecutionException("Forked RoboVM compiler failed", e);
+        }
+    }
+
+    private static List<String> splitJvmArgs(String args) {
+        List<String> result = new ArrayList<>();
+        if (args != null && !args.trim().isEmpty()) {
+            result.addAll(Arrays.asList(args.trim().split("\\s+")));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the root of the compiled class cache.
+     */
+    protected File getCacheRoot() {
+        return cacheDir != null ? cacheDir
+                : new File(System.getProperty("user.home"), ".robovm/cache");
+    }
+
+    /**
+     * Acquires the shared lock on the compiled class cache which prevents
+     * {@link CacheGc} from evicting classes while they are being used.
+     */
+    protected Closeable lockCache() throws IOException {
+        return lock(CacheGc.getLockFile(getCacheRoot()), true, "wait-cache");
+    }
+
+    /**
+     * Acquires a lock using {@link FileLocks} and records the time spent
+     * waiting for it as the specified phase.
+     */
+    private Closeable lock(File lockFile, boolean shared, String phase) throws IOException {
+        try (BuildMetrics.Timer timer = getMetrics().start(phase)) {
+            return shared ? FileLocks.lockShared(lockFile, getLog())
+                    : FileLocks.lockExclusive(lockFile, getLog());
+        }
+    }
+
+    /**
+     * Evicts classes from the compiled class cache if {@link #cacheGc} is
+     * enabled and no other build is using the cache. Failures are logged but
+     * don't fail the build.
+     */
+    protected void collectCache() {
+        if (!cacheGc) {
+            return;
+        }
+        File cacheRoot = getCacheRoot();
+        try (Closeable lock = FileLocks.tryLockExclusive(CacheGc.getLockFile(cacheRoot))) {
+            if (lock == null) {
+                getLog().debug("Compiled class cache is in use, skipping cache GC");
+                return;
+            }
+            new CacheGc(cacheRoot, getLog()).collect(
+                    cacheMaxSize != null ? CacheGc.parseSize(cacheMaxSize) : -1,
+                    cacheMaxAge >= 0 ? cacheMaxAge * 24L * 60 * 60 * 1000 : -1,
+                    System.currentTimeMillis());
+        } catch (IOException | IllegalArgumentException e) {
+            getLog().warn("Failed to clean up compiled class cache " + cacheRoot + ": " + e);
+        }
+    }
+
+    private RemoteCacheSync getRemoteCacheSync() throws MojoExecutionException {
+        try {
+            return new RemoteCacheSync(RemoteCacheSync.createRemoteCache(remoteCache),
+                    session, getCacheRoot(), getLog());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Invalid remote cache: "
+                    + HttpRemoteCache.redact(remoteCache), e);
+        }
+    }
+
+    /**
+     * Fetches compiled classes missing from the local cache of the specified
+     * configs from the {@link #remoteCache}, if one has been configured.
+     * Failures are logged but don't fail the build. The configs are only
+     * needed, and may be {@code null}, if there is no remote cache.
+     */
+    protected void pullFromRemoteCache(List<Config> configs, BuildStats stats)
+            throws MojoExecutionException {
+
+        if (remoteCache == null) {
+            return;
+        }
+        stats.startPhase("cache-pull");
+        RemoteCacheSync sync = getRemoteCacheSync();
+        try {
+            sync.pull(configs);
+        } catch (IOException e) {
+            getLog().warn("Failed to fetch compiled classes from remote cache "
+                    + sync.getRemote() + ": " + e);
+        }
+        stats.addRestored(sync.getRestoredFiles());
+    }
+
+    /**
+     * Uploads compiled classes in the local cache of the specified configs
+     * to the {@link #remoteCache}, if one has been configured and uploading
+     * hasn't been disabled. Failures are logged but don't fail the build.
+     * The configs may be {@code null} if there is no remote cache.
+     */
+    protected void pushToRemoteCache(List<Config> configs, BuildStats stats)
+            throws MojoExecutionException {
+
+        if (remoteCache == null || !remoteCachePush) {
+            return;
+        }
+        stats.startPhase("cache-push");
+        RemoteCacheSync sync = getRemoteCacheSync();
+        try {
+            sync.push(configs);
+        } catch (IOException e) {
+            getLog().warn("Failed to upload compiled classes to remote cache "
+                    + sync.getRemote() + ": " + e);
+        } finally {
+            stats.endPhase();
+        }
+    }
+
+    /**
+     * Logs the statistics of a finished build and writes them to
+     * {@code target/robovm-build-stats.json}.
+     *
+     * @param config the config the app has been built with.
+     * @param mode what the build was for, e.g. {@code install}.
+     */
+    protected void reportBuildStats(BuildStats stats, Config config, String mode) {
+        File file = new File(project.getBuild().getDirectory(), "robovm-build-stats.json");
+        try {
+            stats.finish(config);
+            stats.recordPhases(getMetrics());
+            stats.log(getLog(), statsTopClasses);
+            stats.write(file, project.getGroupId() + ":" + project.getArtifactId(), mode,
+                    statsTopClasses);
+        } catch (IOException e) {
+            getLog().warn("Failed to write RoboVM build statistics to " + file + ": " + e);
+        }
+    }
+
+    protected File getTmpDir() {
+        return new File(project.getBuild().getDirectory(), "robovm.tmp");
+    }
+
+    /**
+     * Returns the file the fingerprint of the last successful build of the
+     * specified mode is stored in. Each mode has its own so that switching
+     * between e.g. {@code install} and {@code console} doesn't invalidate
+     * the other goal's build.
+     */
+    protected File getFingerprintFile(String mode) {
+        return new File(installDir.getParentFile(), installDir.getName() + "." + mode + ".fingerprint");
+    }
+
+    /**
+     * Returns the existing properties files the config is read from: either
+     * {@link #propertiesFile} or, like
+     * {@code Config.Builder.readProjectProperties()}, the project's
+     * {@code robovm.properties} followed by {@code robovm.local.properties}.
+     */
+    protected List<File> getPropertiesFiles() {
+        List<File> files = new ArrayList<>();
+        if (propertiesFile != null) {
+            files.add(propertiesFile);
+        } else {
+            for (String name : new String[] {"robovm.properties", "robovm.local.properties"}) {
+                File f = new File(project.getBasedir(), name);
+                if (f.exists()) {
+                    files.add(f);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Computes the fingerprint of the build described by the specified
+     * builder. The fingerprint covers the effective config, the RoboVM
+     * version and dist, the runtime classpath and any files referenced from
+     * the config (resources, Info.plist files, libs, etc). {@code mode}
+     * distinguishes goals which produce different outputs from the same
+     * config. It selects the previous fingerprint to compare with but isn't
+     * part of the fingerprint itself, so goals building the same config
+     * share the temporary directory.
+     */
+    protected BuildFingerprint createFingerprint(Config.Builder builder, String mode)
+            throws MojoExecutionException {
+
+        BuildFingerprint fingerprint = new BuildFingerprint(
+                BuildFingerprint.load(getFingerprintFile(mode)));
+        fingerprint.put("robovm.version", getRoboVMVersion())
+                .put("debug", debug)
+                .put("debugPort", String.valueOf(debugPort))
+                .put("skipSigning", String.valueOf(skipSigning))
+                .put("signIdentity", signIdentity)
+                .put("provisioningProfile", provisioningProfile);
+        try {
+            StringWriter sw = new StringWriter();
+            builder.write(sw, project.getBasedir());
+            String xml = sw.toString();
+            fingerprint.put("config", Digests.sha256(xml));
+            if (distArchive != null) {
+                fingerprint.putFileHash("dist", distArchive);
+            }
+            for (Object object : project.getRuntimeClasspathElements()) {
+                fingerprint.addFile(new File((String) object));
+            }
+            addReferencedFiles(fingerprint, Xpp3DomBuilder.build(new StringReader(xml)));
+        } catch (Exception e) {
+            throw new MojoExecutionException(
+                    "Failed to compute RoboVM build fingerprint", e);
+        }
+        return fingerprint;
+    }
+
+    private void addReferencedFiles(BuildFingerprint fingerprint, Xpp3Dom dom)
+            throws IOException {
+
+        String value = dom.getValue();
+        if (dom.getChildCount() == 0 && value != null && !value.trim().isEmpty()) {
+            File f = new File(value.trim());
+            if (!f.isAbsolute()) {
+                f = new File(project.getBasedir(), value.trim());
+            }
+            if (f.exists() && !contains(f, project.getBasedir())
+                    && !contains(f, getTmpDir()) && !contains(f, installDir)) {
+                fingerprint.addFile(f);
+            }
+        }
+        for (Xpp3Dom child : dom.getChildren()) {
+            addReferencedFiles(fingerprint, child);
+        }
+    }
+
+    private static boolean contains(File dir, File f) {
+        String dirPath = dir.getAbsolutePath();
+        String path = f.getAbsolutePath();
+        return path.equals(dirPath) || path.startsWith(dirPath + File.separator);
+    }
+
+    /**
+     * Returns {@code true} if the specified fingerprint matches the one
+     * stored by the last successful build of the same mode, that build's
+     * output still exists and the temporary directory hasn't been rebuilt
+     * for another config since.
+     */
+    protected boolean isUpToDate(BuildFingerprint fingerprint, File output) {
+        if (forceBuild || devHome) {
+            return false;
+        }
+        String[] files = output.list();
+        if (files == null || files.length == 0) {
+            return false;
+        }
+        if (incrementalTmpDir
+                && !TmpDirManifest.isRecorded(getTmpDir(), fingerprint.getConfigKey())) {
+            return false;
+        }
+        return !fingerprint.hasChanged();
+    }
+
+    /**
+     * Invalidates the stored fingerprints of the builds whose output is
+     * about to be replaced and prepares the temporary directory for a new
+     * build. Unless {@link #incrementalTmpDir} has been disabled only stale
+     * files are removed from the temporary directory.
+     */
+    protected void prepareTmpDir(BuildFingerprint fingerprint, String mode)
+            throws MojoExecutionException {
+
+        getFingerprintFile(mode).delete();
+        if (!incrementalTmpDir) {
+            // Without a manifest other modes can't tell that the temporary
+            // directory has been rebuilt
+            for (String m : FINGERPRINT_MODES) {
+                getFingerprintFile(m).delete();
+            }
+        } else if (!"launch".equals(mode)) {
+            // install and archive share the install dir
+            getFingerprintFile("install").delete();
+            getFingerprintFile("archive").delete();
+        }
+        File tmpDir = getTmpDir();
+        try {
+            if (incrementalTmpDir) {
+                int removed = TmpDirManifest.prepare(tmpDir, fingerprint.getConfigKey());
+                if (removed == -1) {
+                    getLog().debug("RoboVM config changed, cleaned output dir " + tmpDir);
+                } else {
+                    getLog().debug("Reusing output dir " + tmpDir + ", removed "
+                            + removed + " stale file(s)");
+                }
+            } else {
+                FileUtils.deleteDirectory(tmpDir);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to clean output dir " + tmpDir, e);
+        }
+        tmpDir.mkdirs();
+    }
+
+    /**
+     * Stores the fingerprint of a successful build and records the contents
+     * of the temporary directory it produced.
+     */
+    protected void storeFingerprint(BuildFingerprint fingerprint, String mode) throws IOException {
+        if (incrementalTmpDir) {
+            TmpDirManifest.record(getTmpDir(), fingerprint.getConfigKey());
+        }
+        fingerprint.store(getFingerprintFile(mode));
+    }
+
     protected String getRoboVMVersion() {
         return Version.getVersion();
     }
 
+    /**
+     * Resolves and unpacks the robovm-dist bundle. Resolution and extraction
+     * are done while holding an exclusive lock shared by all builds using the
+     * same local repository (or {@link #home}) so that only one thread or
+     * process extracts the dist while the others wait and reuse the result.
+     * Afterwards a shared lock on the unpacked dist is held until
+     * {@link #releaseDistLock()} is called to prevent other builds from
+     * replacing it while it is in use.
+     */
     protected File unpackRoboVMDist() throws MojoExecutionException {
 
-        Artifact distTarArtifact = resolveRoboVMDistArtifact();
-        File distTarFile = distTarArtifact.getFile();
-        File unpackBaseDir;
+        releaseDistLock();
+
+        Artifact artifact = createRoboVMDistArtifact();
+        File lockFile;
         if (home != null) {
-            unpackBaseDir = home;
+            lockFile = new File(home, ".robovm-dist-" + getRoboVMVersion() + ".lock");
         } else {
-            // by default unpack into the local repo directory
-            unpackBaseDir = new File(distTarFile.getParent(), "unpacked");
+            lockFile = new File(new File(localRepository.getBasedir(),
+                    localRepository.pathOf(artifact)).getParentFile(), ".robovm-dist.lock");
         }
-        if (unpackBaseDir.exists() && distTarArtifact.isSnapshot()) {
-            getLog().debug("Deleting directory for unpacked snapshots: " + unpackBaseDir);
+
+        for (int attempt = 0; ; attempt++) {
+            File unpackedDir;
+            try (Closeable lock = lock(lockFile, false, "wait-dist")) {
+                Artifact distTarArtifact = resolveArtifact(artifact);
+                File distTarFile = distTarArtifact.getFile();
+                distArchive = distTarFile;
+                File unpackBaseDir;
+                if (home != null) {
+                    unpackBaseDir = home;
+                } else {
+                    // by default unpack into the local repo directory
+                    unpackBaseDir = new File(distTarFile.getParent(), "unpacked");
+                }
+                unpackedDir = new File(unpackBaseDir, "robovm-" + getRoboVMVersion());
+                unpack(distTarFile, unpackedDir);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to lock " + lockFile, e);
+            }
+
+            File useLockFile = getUseLockFile(unpackedDir);
             try {
-                FileUtils.deleteDirectory(unpackBaseDir);
+                distLock = lock(useLockFile, true, "wait-dist");
             } catch (IOException e) {
-                throw new MojoExecutionException(
-                        "Failed to delete " + unpackBaseDir, e);
+                throw new MojoExecutionException("Failed to lock " + useLockFile, e);
             }
+            if (!new File(unpackedDir, UNPACKED_MARKER).exists() && attempt == 0) {
+                // Evicted by robovm:dist-gc before we got the lock. Try again.
+                releaseDistLock();
+                continue;
+            }
+
+            if (distStore != null) {
+                try {
+                    new DistStore(distStore, getLog()).markUsed(unpackedDir);
+                } catch (IOException e) {
+                    getLog().debug("Failed to update " + distStore + ": " + e);
+                }
+            }
+            return unpackedDir;
+        }
+    }
+
+    /**
+     * Returns the lock file which builds hold a shared lock on while using
+     * the contents of the specified unpacked directory.
+     */
+    static File getUseLockFile(File unpackedDir) {
+        return new File(unpackedDir.getAbsoluteFile().getParentFile(),
+                unpackedDir.getName() + ".lock");
+    }
+
+    /**
+     * Releases the shared lock on the dist acquired by
+     * {@link #unpackRoboVMDist()}.
+     */
+    protected void releaseDistLock() {
+        if (distLock != null) {
+            try {
+                distLock.close();
+            } catch (IOException e) {
+                getLog().debug("Failed to release RoboVM dist lock: " + e);
+            }
+            distLock = null;
+        }
+    }
+
+    /**
+     * Reserves compiler threads from the session wide
+     * {@link CompilerScheduler}. The returned budget must be closed as soon
+     * as compiling has finished.
+     *
+     * @param inProcess {@code true} if the build runs inside the Maven JVM.
+     */
+    protected CompilerScheduler.Budget acquireCompilerThreads(boolean inProcess)
+            throws MojoExecutionException {
+
+        try (BuildMetrics.Timer timer = getMetrics().start("wait-threads")) {
+            return CompilerScheduler.get(session, maxCompilerThreads)
+                    .acquire(inProcess, getLog());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for compiler threads", e);
         }
-        unpack(distTarFile, unpackBaseDir);
-        File unpackedDir = new File(unpackBaseDir, "robovm-" + getRoboVMVersion());
-        return unpackedDir;
     }
 
     protected Artifact resolveRoboVMDistArtifact() throws MojoExecutionException {
+        return resolveArtifact(createRoboVMDistArtifact());
+    }
 
+    private Artifact createRoboVMDistArtifact() {
         MavenArtifactHandler handler = new MavenArtifactHandler("tar.gz");
-        Artifact artifact = new DefaultArtifact("org.robovm", "robovm-dist",
+        return new DefaultArtifact("org.robovm", "robovm-dist",
                 getRoboVMVersion(), "", "tar.gz", "nocompiler", handler);
-        return resolveArtifact(artifact);
     }
 
     protected Artifact resolveArtifact(Artifact artifact)
             throws MojoExecutionException {
 
+        try (BuildMetrics.Timer timer = getMetrics().start("resolve")) {
+            return resolve(artifact);
+        }
+    }
+
+    private Artifact resolve(Artifact artifact) throws MojoExecutionException {
+
         ArtifactResolutionRequest request = new ArtifactResolutionRequest();
         request.setArtifact(artifact);
-        if (artifact.isSnapshot()) {
-            request.setForceUpdate(true);
-        }
         request.setLocalRepository(localRepository);
         final List<ArtifactRepository> remoteRepositories = project
                 .getRemoteArtifactRepositories();
@@ -434,44 +1436,180 @@ public abstract class AbstractRoboVMMojo extends AbstractMojo {
 
         getLog().debug("Resolving artifact " + artifact);
 
-        ArtifactResolutionResult result = artifactResolver.resolve(request);
-        if (!result.isSuccess()) {
+        Artifact resolved;
+        if (artifact.isSnapshot()) {
+            try {
+                ResolutionCache.checkPolicy(snapshotUpdatePolicy);
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
+            ResolutionCache resolutionCache = new ResolutionCache(new File(
+                    localRepository.getBasedir(), ".robovm-resolution.properties"));
+            String sessionId = String.valueOf(session.getRequest().getStartTime().getTime());
+            resolved = resolutionCache.resolve(artifactResolver, request,
+                    snapshotUpdatePolicy, sessionId, System.currentTimeMillis(), getLog());
+        } else {
+            ArtifactResolutionResult result = artifactResolver.resolve(request);
+            resolved = result.isSuccess() ? result.getArtifacts().iterator().next() : null;
+        }
+        if (resolved == null) {
             throw new MojoExecutionException("Unable to resolve artifact: "
                     + artifact);
         }
-        Collection<Artifact> resolvedArtifacts = result.getArtifacts();
-        artifact = (Artifact) resolvedArtifacts.iterator().next();
-        return artifact;
+        return resolved;
     }
 
+    /**
+     * Extracts the single root directory of {@code archive} to
+     * {@code targetDirectory}. The archive is extracted into a staging
+     * directory next to {@code targetDirectory} which is then renamed into
+     * place, so an interrupted extraction never leaves a partially extracted
+     * {@code targetDirectory} behind. A marker recording the SHA-256 of the
+     * archive is written once the extraction is complete. The archive is only
+     * extracted again if its contents differ from the recorded checksum.
+     */
     protected void unpack(File archive, File targetDirectory)
             throws MojoExecutionException {
 
-        if (!targetDirectory.exists()) {
+        try (BuildMetrics.Timer timer = getMetrics().start("unpack")) {
+            extract(archive, targetDirectory);
+        }
+    }
 
-            getLog().info("Extracting '" + archive + "' to: " + targetDirectory);
-            if (!targetDirectory.mkdirs()) {
-                throw new MojoExecutionException(
-                        "Unable to create base directory to unpack into: "
-                                + targetDirectory);
-            }
+    private void extract(File archive, File targetDirectory)
+            throws MojoExecutionException {
 
-            try {
-                UnArchiver unArchiver = archiverManager.getUnArchiver(archive);
-                unArchiver.setSourceFile(archive);
-                unArchiver.setDestDirectory(targetDirectory);
-                unArchiver.extract();
-            } catch (NoSuchArchiverException e) {
-                throw new MojoExecutionException("Unable to unpack archive "
-                        + archive + " to " + targetDirectory, e);
+        File markerFile = new File(targetDirectory, UNPACKED_MARKER);
+        Properties marker = new Properties();
+        if (markerFile.exists()) {
+            try (InputStream in = new FileInputStream(markerFile)) {
+                marker.load(in);
+            } catch (IOException e) {
+                getLog().debug("Failed to read " + markerFile + ": " + e);
             }
-            getLog().debug(
-                    "Archive '" + archive + "' unpacked to: " + targetDirectory);
+        }
 
-        } else {
+        String stamp = archive.length() + ":" + archive.lastModified();
+        if (stamp.equals(marker.getProperty("archive.stamp"))) {
             getLog().debug(
                     "Archive '" + archive + "' was already unpacked in: "
                             + targetDirectory);
+            return;
+        }
+
+        String sha256;
+        try {
+            sha256 = Digests.sha256(archive);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read " + archive, e);
+        }
+        if (sha256.equals(marker.getProperty("sha256"))) {
+            getLog().debug(
+                    "Archive '" + archive + "' with unchanged contents was already unpacked in: "
+                            + targetDirectory);
+            marker.setProperty("archive.stamp", stamp);
+            writeMarker(markerFile, marker);
+            return;
+        }
+
+        File baseDir = targetDirectory.getAbsoluteFile().getParentFile();
+        String prefix = "." + targetDirectory.getName() + ".";
+        deleteLeftovers(baseDir, prefix);
+
+        getLog().info("Extracting '" + archive + "' to: " + targetDirectory);
+        File stagingDir = new File(baseDir, prefix + "staging-" + UUID.randomUUID());
+        if (!stagingDir.mkdirs()) {
+            throw new MojoExecutionException(
+                    "Unable to create staging directory to unpack into: "
+                            + stagingDir);
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            DistStore store = distStore != null ? new DistStore(distStore, getLog()) : null;
+            try (Closeable storeLock = store != null ? store.lockShared() : null) {
+                String name = archive.getName().toLowerCase();
+                if (parallelUnpack && (name.endsWith(".tar.gz") || name.endsWith(".tgz"))) {
+                    TarGzExtractor extractor = new TarGzExtractor();
+                    extractor.setStore(store);
+                    extractor.extract(archive, stagingDir);
+                } else {
+                    try {
+                        UnArchiver unArchiver = archiverManager.getUnArchiver(archive);
+                        unArchiver.setSourceFile(archive);
+                        unArchiver.setDestDirectory(stagingDir);
+                        unArchiver.extract();
+                    } catch (NoSuchArchiverException e) {
+                        throw new MojoExecutionException("Unable to unpack archive "
+                                + archive + " to " + targetDirectory, e);
+                    }
+                    if (store != null) {
+                        store.deduplicate(stagingDir);
+                    }
+                }
+            }
+            getLog().debug("Extracted '" + archive + "' in "
+                    + (System.currentTimeMillis() - start) + " ms");
+
+            File[] roots = stagingDir.listFiles();
+            if (roots == null || roots.length != 1 || !roots[0].isDirectory()) {
+                throw new MojoExecutionException("Archive " + archive
+                        + " doesn't contain a single root directory");
+            }
+
+            marker = new Properties();
+            marker.setProperty("sha256", sha256);
+            marker.setProperty("archive", archive.getAbsolutePath());
+            marker.setProperty("archive.stamp", stamp);
+            writeMarker(new File(roots[0], UNPACKED_MARKER), marker);
+
+            // Wait for builds still using the previous contents
+            try (Closeable lock = FileLocks.lockExclusive(getUseLockFile(targetDirectory), getLog())) {
+                if (targetDirectory.exists()) {
+                    Files.move(targetDirectory.toPath(),
+                            new File(baseDir, prefix + "old-" + UUID.randomUUID()).toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+                Files.move(roots[0].toPath(), targetDirectory.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to unpack archive "
+                    + archive + " to " + targetDirectory, e);
+        } finally {
+            deleteLeftovers(baseDir, prefix);
+        }
+
+        getLog().debug(
+                "Archive '" + archive + "' unpacked to: " + targetDirectory);
+    }
+
+    private void writeMarker(File markerFile, Properties marker)
+            throws MojoExecutionException {
+
+        try (OutputStream out = new FileOutputStream(markerFile)) {
+            marker.store(out, null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + markerFile, e);
+        }
+    }
+
+    /**
+     * Deletes staging directories and replaced directories left behind by
+     * earlier extractions.
+     */
+    private void deleteLeftovers(File baseDir, String prefix) {
+        File[] files = baseDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith(prefix)) {
+                    try {
+                        FileUtils.deleteDirectory(f);
+                    } catch (IOException e) {
+                        getLog().debug("Failed to delete " + f + ": " + e);
+                    }
+                }
+            }
         }
     }
 
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records the time spent in each phase of a mojo execution (artifact
+ * resolution, dist unpacking, config assembly, compiling, linking,
+ * installing/archiving, launching) and exports it as JSON and in the
+ * OpenMetrics text format.
+ * <p>
+ * Phases are timed using {@link #start(String)} and may be nested, in which
+ * case the time spent in the nested phase is not counted towards the
+ * enclosing phase. The phase times thus add up to the total time measured.
+ */
+public class BuildMetrics {
+
+    private final String module;
+    private final String goal;
+    private final long timestamp = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private SessionTrace trace;
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+    private final Deque<Timer> running = new ArrayDeque<>();
+
+    /**
+     * A running phase. Closing it stops it.
+     */
+    public final class Timer implements AutoCloseable {
+        private final String phase;
+        private final long start = System.nanoTime();
+        private long nested;
+        private boolean stopped;
+
+        private Timer(String phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close() {
+            synchronized (BuildMetrics.this) {
+                if (stopped) {
+                    return;
+                }
+                stopped = true;
+                long end = System.nanoTime();
+                long elapsed = end - start;
+                running.remove(this);
+                add(phase, (elapsed - nested) / 1000000);
+                if (trace != null) {
+                    trace.phase(phase, module, goal, start, end);
+                }
+                Timer parent = running.peek();
+                if (parent != null) {
+                    parent.nested += elapsed;
+                }
+            }
+        }
+    }
+
+    public BuildMetrics(String module, String goal) {
+        this.module = module;
+        this.goal = goal;
+    }
+
+    /**
+     * Starts timing the specified phase.
+     */
+    public synchronized Timer start(String phase) {
+        Timer timer = new Timer(phase);
+        running.push(timer);
+        return timer;
+    }
+
+    /**
+     * Adds time measured elsewhere to the specified phase.
+     */
+    public synchronized void add(String phase, long millis) {
+        long[] value = phases.get(phase);
+        if (value == null) {
+            value = new long[2];
+            phases.put(phase, value);
+        }
+        value[0] += millis;
+        value[1]++;
+    }
+
+    /**
+     * Adds a phase which ran on the current thread between the specified
+     * {@link System#nanoTime()} values.
+     */
+    public synchronized void record(String phase, long startNanos, long endNanos) {
+        add(phase, (endNanos - startNanos) / 1000000);
+        if (trace != null) {
+            trace.phase(phase, module, goal, startNanos, endNanos);
+        }
+    }
+
+    /**
+     * Sets the session trace to record phases in.
+     */
+    public synchronized void setTrace(SessionTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Extends the span of this goal in the session trace, if any, to now and
+     * writes the trace.
+     */
+    public synchronized void writeTrace() throws IOException {
+        if (trace != null) {
+            trace.goal(this, module, goal, startNanos, System.nanoTime());
+            trace.write();
+        }
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> e : phases.entrySet()) {
+            result.put(e.getKey(), e.getValue()[0]);
+        }
+        return result;
+    }
+
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"module\": ").append(Json.quote(module)).append(",\n");
+        sb.append("  \"goal\": ").append(Json.quote(goal)).append(",\n");
+        sb.append("  \"timestamp\": ").append(timestamp).append(",\n");
+        sb.append("  \"phases\": {");
+        String sep = "\n";
+        for (Map.Entry<String, long[]> e : phases.entrySet()) {
+            sb.append(sep).append("    ").append(Json.quote(e.getKey()))
+                    .append(": {\"ms\": ").append(e.getValue()[0])
+                    .append(", \"count\": ").append(e.getValue()[1]).append("}");
+            sep = ",\n";
+        }
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+
+    public synchronized String toOpenMetrics() {
+        String labels = "module=\"" + escapeLabel(module) + "\",goal=\"" + escapeLabel(goal) + "\"";
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE robovm_build_phase_seconds gauge\n");
+        sb.append("# HELP robovm_build_phase_seconds Time spent in each phase of the last RoboVM build.\n");
+        for (Map.Entry<String, long[]> e : phases.entrySet()) {
+            sb.append("robovm_build_phase_seconds{").append(labels).append(",phase=\"")
+                    .append(escapeLabel(e.getKey())).append("\"} ")
+                    .append(String.format(Locale.ENGLISH, "%.3f", e.getValue()[0] / 1000.0)).append('\n');
+        }
+        sb.append("# TYPE robovm_build_timestamp_seconds gauge\n");
+        sb.append("# HELP robovm_build_timestamp_seconds Time the last RoboVM build started.\n");
+        sb.append("robovm_build_timestamp_seconds{").append(labels).append("} ")
+                .append(String.format(Locale.ENGLISH, "%.3f", timestamp / 1000.0)).append('\n');
+        sb.append("# EOF\n");
+        return sb.toString();
+    }
+
+    private static String escapeLabel(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Writes the specified contents to the specified file. The file is
+     * replaced atomically so that scrapers never read partial files.
+     */
+    static void write(File file, String contents) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            w.write(contents);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.Log;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.Config;
+import org.robovm.compiler.log.Logger;
+
+/**
+ * Collects statistics about a single RoboVM build: the classes compiled and
+ * the classes reused from the compiled class cache, the time spent in each
+ * phase and the classes which took the longest to compile.
+ * <p>
+ * Compiled and reused classes are determined from the {@code .class.o} files
+ * in the cache directories of the build's classpath entries: files written
+ * during the build count as compiled unless they have been restored from the
+ * remote cache, older files of classes which have been linked (see
+ * {@link LinkedClasses}) count as reused. Compile times
+ * and the switch from compiling to linking are derived from the messages the
+ * compiler logs through the {@link Logger} returned by
+ * {@link #wrap(Logger)}; these aren't available when building in the
+ * compiler daemon.
+ */
+public class BuildStats {
+
+    private final long start = System.currentTimeMillis();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<Thread, Compiling> compiling = new HashMap<>();
+    private final Map<String, Long> classTimes = new HashMap<>();
+    private final List<long[]> intervals = new ArrayList<>();
+    private final List<String> intervalPhases = new ArrayList<>();
+    private String currentPhase;
+    private long phaseStart;
+    private int linkedClasses = -1;
+    private int compiledClasses;
+    private long compiledBytes;
+    private int reusedClasses;
+    private long reusedBytes;
+    private int restoredClasses;
+    private long restoredBytes;
+    private final Set<File> restoredFiles = new HashSet<>();
+    private long duration;
+
+    private static class Compiling {
+        final String className;
+        final long start;
+
+        Compiling(String className, long start) {
+            this.className = className;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Returns a {@link Logger} which forwards to the specified logger and
+     * tracks the compilation of individual classes.
+     */
+    public Logger wrap(final Logger delegate) {
+        return new Logger() {
+            public void debug(String format, Object... args) {
+                observe(format, args);
+                delegate.debug(format, args);
+            }
+
+            public void info(String format, Object... args) {
+                observe(format, args);
+                delegate.info(format, args);
+            }
+
+            public void warn(String format, Object... args) {
+                delegate.warn(format, args);
+            }
+
+            public void error(String format, Object... args) {
+                delegate.error(format, args);
+            }
+        };
+    }
+
+    private synchronized void observe(String format, Object[] args) {
+        if (format == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (format.startsWith("Linking %d classes") && args.length > 0 && args[0] instanceof Number) {
+            linkedClasses = ((Number) args[0]).intValue();
+            endCompiling(now);
+            if ("compile".equals(currentPhase)) {
+                startPhase("link");
+            }
+        } else if (format.startsWith("Compiling %s") && args.length > 0 && args[0] != null) {
+            Thread t = Thread.currentThread();
+            endCompiling(t, now);
+            compiling.put(t, new Compiling(args[0].toString(), now));
+        }
+    }
+
+    private void endCompiling(Thread t, long now) {
+        Compiling c = compiling.remove(t);
+        if (c != null) {
+            Long time = classTimes.get(c.className);
+            classTimes.put(c.className, (time != null ? time : 0) + (now - c.start) / 1000000);
+        }
+    }
+
+    private void endCompiling(long now) {
+        for (Thread t : new ArrayList<>(compiling.keySet())) {
+            endCompiling(t, now);
+        }
+    }
+
+    /**
+     * Ends the current phase, if any, and starts the specified phase.
+     */
+    public synchronized void startPhase(String name) {
+        endPhase();
+        currentPhase = name;
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the current phase, if any.
+     */
+    public synchronized void endPhase() {
+        if (currentPhase != null) {
+            long end = System.nanoTime();
+            Long time = phases.get(currentPhase);
+            phases.put(currentPhase, (time != null ? time : 0) + (end - phaseStart) / 1000000);
+            intervalPhases.add(currentPhase);
+            intervals.add(new long[] { phaseStart, end });
+            currentPhase = null;
+        }
+    }
+
+    /**
+     * Records the {@code .class.o} files restored from the remote cache
+     * during this build.
+     */
+    public synchronized void addRestored(Collection<File> files) {
+        restoredFiles.addAll(files);
+    }
+
+    /**
+     * Ends the build and counts the compiled, restored and reused classes in
+     * the cache directories of all archs of the specified config.
+     */
+    public synchronized void finish(Config config) throws IOException {
+        endPhase();
+        endCompiling(System.nanoTime());
+        duration = System.currentTimeMillis() - start;
+        // The classes linked using the cache directories. null if all
+        // classes may have been linked.
+        Set<String> linked = LinkedClasses.find(config);
+        List<File> entries = new ArrayList<>(config.getBootclasspath());
+        entries.addAll(config.getClasspath());
+        Set<File> dirs = new HashSet<>();
+        for (File osArchCacheDir : getOsArchCacheDirs(config)) {
+            for (File f : entries) {
+                if (f.exists()) {
+                    dirs.add(RemoteCacheSync.getLocalDir(osArchCacheDir, f.getCanonicalFile()));
+                }
+            }
+        }
+        for (File dir : dirs) {
+            count(dir, "", linked);
+        }
+    }
+
+    /**
+     * Returns the cache directories of all archs of the specified config.
+     * {@link Config#getCacheDir()} is the directory of the config's first
+     * arch ({@code <cacheDir>/<os>/<arch>/<variant>}), the directories of the
+     * other archs are derived from it rather than building a config per
+     * arch.
+     */
+    static List<File> getOsArchCacheDirs(Config config) {
+        File osArchCacheDir = config.getCacheDir();
+        List<Arch> archs = config.getArchs();
+        if (archs == null || archs.size() <= 1) {
+            return Collections.singletonList(osArchCacheDir);
+        }
+        File osCacheDir = osArchCacheDir.getParentFile().getParentFile();
+        List<File> dirs = new ArrayList<>();
+        for (Arch arch : archs) {
+            dirs.add(new File(new File(osCacheDir, arch.toString()), osArchCacheDir.getName()));
+        }
+        return dirs;
+    }
+
+    private void count(File dir, String prefix, Set<String> linked) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                count(f, prefix + f.getName() + "/", linked);
+            } else if (f.getName().endsWith(".class.o")) {
+                String className = prefix + f.getName().substring(0,
+                        f.getName().length() - ".class.o".length());
+                if (restoredFiles.contains(f)) {
+                    restoredClasses++;
+                    restoredBytes += f.length();
+                } else if (f.lastModified() >= start) {
+                    compiledClasses++;
+                    compiledBytes += f.length();
+                } else if (linked == null || linked.contains(className)) {
+                    reusedClasses++;
+                    reusedBytes += f.length();
+                }
+            }
+        }
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    /**
+     * Records each phase of this build in the specified metrics.
+     */
+    public synchronized void recordPhases(BuildMetrics metrics) {
+        for (int i = 0; i < intervals.size(); i++) {
+            metrics.record(intervalPhases.get(i), intervals.get(i)[0], intervals.get(i)[1]);
+        }
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    private List<Map.Entry<String, Long>> getSlowestClasses(int n) {
+        List<Map.Entry<String, Long>> list = new ArrayList<>(classTimes.entrySet());
+        Collections.sort(list, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                return Long.compare(o2.getValue(), o1.getValue());
+            }
+        });
+        return list.subList(0, Math.min(n, list.size()));
+    }
+
+    public synchronized void log(Log log, int topN) {
+        log.info(String.format(Locale.ENGLISH,
+                "RoboVM class cache: %d classes compiled (%s), %d restored from remote cache (%s), "
+                + "%d reused (%s)%s",
+                compiledClasses, CacheGc.formatSize(compiledBytes),
+                restoredClasses, CacheGc.formatSize(restoredBytes),
+                reusedClasses, CacheGc.formatSize(reusedBytes),
+                linkedClasses >= 0 ? ", " + linkedClasses + " linked" : ""));
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : phases.entrySet()) {
+            sb.append(sb.length() > 0 ? ", " : "").append(e.getKey()).append(' ')
+                    .append(String.format(Locale.ENGLISH, "%.1fs", e.getValue() / 1000.0));
+        }
+        log.info("RoboVM build phases: " + sb);
+        if (compiledClasses > 0 && !classTimes.isEmpty()) {
+            log.info("Slowest classes to compile:");
+            for (Map.Entry<String, Long> e : getSlowestClasses(topN)) {
+                log.info(String.format(Locale.ENGLISH, "  %8d ms  %s", e.getValue(), e.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Writes the statistics as JSON to the specified file.
+     *
+     * @param mode what the build was for, e.g. {@code install},
+     *            {@code archive} or {@code launch}.
+     */
+    public synchronized void write(File file, String module, String mode, int topN)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"module\": ").append(Json.quote(module)).append(",\n");
+        sb.append("  \"mode\": ").append(Json.quote(mode)).append(",\n");
+        sb.append("  \"timestamp\": ").append(start).append(",\n");
+        sb.append("  \"durationMs\": ").append(duration).append(",\n");
+        sb.append("  \"classes\": {\n");
+        sb.append("    \"compiled\": ").append(compiledClasses).append(",\n");
+        sb.append("    \"compiledBytes\": ").append(compiledBytes).append(",\n");
+        sb.append("    \"restored\": ").append(restoredClasses).append(",\n");
+        sb.append("    \"restoredBytes\": ").append(restoredBytes).append(",\n");
+        sb.append("    \"reused\": ").append(reusedClasses).append(",\n");
+        sb.append("    \"reusedBytes\": ").append(reusedBytes).append(",\n");
+        sb.append("    \"linked\": ").append(linkedClasses >= 0 ? String.valueOf(linkedClasses) : "null")
+                .append("\n");
+        sb.append("  },\n");
+        sb.append("  \"phases\": {");
+        String sep = "\n";
+        for (Map.Entry<String, Long> e : phases.entrySet()) {
+            sb.append(sep).append("    ").append(Json.quote(e.getKey())).append(": ").append(e.getValue());
+            sep = ",\n";
+        }
+        sb.append("\n  },\n");
+        sb.append("  \"slowestClasses\": [");
+        sep = "\n";
+        for (Map.Entry<String, Long> e : getSlowestClasses(topN)) {
+            sb.append(sep).append("    {\"class\": ").append(Json.quote(e.getKey()))
+                    .append(", \"ms\": ").append(e.getValue()).append("}");
+            sep = ",\n";
+        }
+        sb.append("\n  ]\n}\n");
+
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            w.write(sb.toString());
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
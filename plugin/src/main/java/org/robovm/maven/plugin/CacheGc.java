@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.robovm.maven.common.CacheGcLock;
+
+/**
+ * Evicts the least recently used compiled classes from the compiled class
+ * cache ({@code cacheDir}) until it fits a size and age budget. All files
+ * the compiler produced for a class ({@code Foo.class.o},
+ * {@code Foo.class.info}, etc) are evicted together. The last access time of
+ * a class is the most recent access or modification time of any of its
+ * files.
+ * <p>
+ * Builds hold a shared lock on {@link #getLockFile(File)} while compiling,
+ * so callers must hold the exclusive lock while collecting.
+ */
+public class CacheGc {
+
+    private static final Pattern VERSION = Pattern.compile(
+            "/robovm-(?:[a-z]+-)*(\\d+\\.\\d+(?:\\.\\d+)?(?:-SNAPSHOT)?)(?:\\.jar)?(?:/|$)");
+
+    private final File cacheRoot;
+    private final Log log;
+
+    private static class Group {
+        final List<Path> files = new ArrayList<>();
+        long size;
+        long lastAccess;
+        String arch;
+        String version;
+    }
+
+    /**
+     * Total and evicted bytes per os/arch or RoboVM version.
+     */
+    public static class Usage {
+        public long size;
+        public long evicted;
+    }
+
+    public CacheGc(File cacheRoot, Log log) {
+        this.cacheRoot = cacheRoot;
+        this.log = log;
+    }
+
+    public static File getLockFile(File cacheRoot) {
+        return CacheGcLock.getLockFile(cacheRoot);
+    }
+
+    /**
+     * Parses sizes like {@code 500M} or {@code 20G}. Sizes without a unit are
+     * in bytes.
+     */
+    public static long parseSize(String s) {
+        s = s.trim().toUpperCase(Locale.ENGLISH);
+        if (s.endsWith("B")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        long unit = 1;
+        if (!s.isEmpty()) {
+            int i = "KMGT".indexOf(s.charAt(s.length() - 1));
+            if (i != -1) {
+                unit = 1L << (10 * (i + 1));
+                s = s.substring(0, s.length() - 1);
+            }
+        }
+        try {
+            return (long) (Double.parseDouble(s.trim()) * unit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + s);
+        }
+    }
+
+    public static String formatSize(long size) {
+        if (size >= 1L << 30) {
+            return String.format(Locale.ENGLISH, "%.1f GB", size / (double) (1L << 30));
+        }
+        return String.format(Locale.ENGLISH, "%.1f MB", size / (double) (1L << 20));
+    }
+
+    /**
+     * Evicts classes not accessed within {@code maxAge} milliseconds and then
+     * the least recently used classes until the cache is no larger than
+     * {@code maxSize} bytes. Pass {@code -1} to disable either limit. Returns
+     * the number of bytes evicted.
+     */
+    public long collect(long maxSize, long maxAge, long now) throws IOException {
+        List<Group> groups = scan();
+        Collections.sort(groups, new Comparator<Group>() {
+            public int compare(Group o1, Group o2) {
+                return Long.compare(o1.lastAccess, o2.lastAccess);
+            }
+        });
+
+        long total = 0;
+        for (Group g : groups) {
+            total += g.size;
+        }
+        long size = total;
+        long evicted = 0;
+        int evictedClasses = 0;
+        Map<String, Usage> byArch = new TreeMap<>();
+        Map<String, Usage> byVersion = new TreeMap<>();
+        for (Group g : groups) {
+            usage(byArch, g.arch).size += g.size;
+            usage(byVersion, g.version).size += g.size;
+            boolean tooOld = maxAge >= 0 && g.lastAccess < now - maxAge;
+            boolean tooBig = maxSize >= 0 && size > maxSize;
+            if (tooOld || tooBig) {
+                for (Path p : g.files) {
+                    Files.deleteIfExists(p);
+                }
+                size -= g.size;
+                evicted += g.size;
+                evictedClasses++;
+                usage(byArch, g.arch).evicted += g.size;
+                usage(byVersion, g.version).evicted += g.size;
+            }
+        }
+        deleteEmptyDirs(cacheRoot);
+
+        log.info("Compiled class cache " + cacheRoot + ": " + formatSize(total) + ", evicted "
+                + evictedClasses + " classes (" + formatSize(evicted) + ")");
+        log("os/arch", byArch);
+        log("RoboVM version", byVersion);
+        return evicted;
+    }
+
+    private void log(String title, Map<String, Usage> usages) {
+        log.info("  By " + title + ":");
+        for (Map.Entry<String, Usage> e : usages.entrySet()) {
+            log.info(String.format(Locale.ENGLISH, "    %-24s %10s  evicted %10s", e.getKey(),
+                    formatSize(e.getValue().size), formatSize(e.getValue().evicted)));
+        }
+    }
+
+    private static Usage usage(Map<String, Usage> map, String key) {
+        Usage usage = map.get(key);
+        if (usage == null) {
+            usage = new Usage();
+            map.put(key, usage);
+        }
+        return usage;
+    }
+
+    private List<Group> scan() throws IOException {
+        final Path root = cacheRoot.toPath();
+        final Map<String, Group> groups = new HashMap<>();
+        if (!cacheRoot.isDirectory()) {
+            return new ArrayList<>();
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.getParent() != null && dir.getParent().equals(root)
+                        && dir.getFileName().toString().equals("remote-index")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (file.getParent().equals(root)) {
+                    // Lock files and other bookkeeping
+                    return FileVisitResult.CONTINUE;
+                }
+                String name = file.getFileName().toString();
+                int i = name.indexOf(".class.");
+                String groupKey = file.getParent().toString() + File.separator
+                        + (i != -1 ? name.substring(0, i) : name);
+                Group g = groups.get(groupKey);
+                if (g == null) {
+                    g = new Group();
+                    String rel = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    String[] parts = rel.split("/");
+                    g.arch = parts.length > 2 ? parts[0] + "/" + parts[1] : "other";
+                    Matcher m = VERSION.matcher(rel);
+                    g.version = m.find() ? m.group(1) : "other";
+                    groups.put(groupKey, g);
+                }
+                g.files.add(file);
+                g.size += attrs.size();
+                g.lastAccess = Math.max(g.lastAccess, Math.max(
+                        attrs.lastAccessTime().toMillis(), attrs.lastModifiedTime().toMillis()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Deleted concurrently
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new ArrayList<>(groups.values());
+    }
+
+    private static boolean deleteEmptyDirs(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return false;
+        }
+        boolean empty = true;
+        for (File f : files) {
+            if (!f.isDirectory() || !deleteEmptyDirs(f) || !f.delete()) {
+                empty = false;
+            }
+        }
+        return empty;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Evicts the least recently used classes from the compiled class cache
+ * until it is within the configured size and age budget. Waits for builds
+ * currently using the cache to finish.
+ */
+@Mojo(name = "cache-gc", requiresProject = false)
+public class CacheGcMojo extends AbstractMojo {
+
+    /**
+     * The compiled class cache to clean up. Default is ~/.robovm/cache.
+     */
+    @Parameter(property = "robovm.cacheDir")
+    protected File cacheDir;
+
+    /**
+     * The maximum size of the cache, e.g. {@code 500M} or {@code 20G}. By
+     * default the size is not limited.
+     */
+    @Parameter(property = "robovm.cacheMaxSize")
+    protected String maxSize;
+
+    /**
+     * Classes which haven't been used for this many days are evicted. Set to
+     * {@code -1} to only evict by size.
+     */
+    @Parameter(property = "robovm.cacheMaxAge", defaultValue = "30")
+    protected int maxAge = 30;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        File cacheRoot = cacheDir != null ? cacheDir
+                : new File(System.getProperty("user.home"), ".robovm/cache");
+        if (!cacheRoot.isDirectory()) {
+            getLog().info("No RoboVM compiled class cache found in " + cacheRoot);
+            return;
+        }
+        long maxSizeBytes;
+        try {
+            maxSizeBytes = maxSize != null ? CacheGc.parseSize(maxSize) : -1;
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage());
+        }
+
+        try (Closeable lock = FileLocks.lockExclusive(CacheGc.getLockFile(cacheRoot), getLog())) {
+            new CacheGc(cacheRoot, getLog()).collect(maxSizeBytes,
+                    maxAge >= 0 ? maxAge * 24L * 60 * 60 * 1000 : -1, System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to clean up " + cacheRoot, e);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.robovm.compiler.AppCompiler;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.Config;
+import org.robovm.compiler.config.OS;
+import org.robovm.compiler.log.Logger;
+import org.robovm.maven.common.Digests;
+import org.robovm.maven.common.SigningCache;
+
+/**
+ * Long-lived local process which runs RoboVM builds on behalf of
+ * {@link CompilerDaemonClient}. Keeping the compiler in a warm JVM avoids
+ * loading and JIT compiling the compiler classes and LLVM bindings on every
+ * build. The daemon listens on a loopback socket, only accepts requests
+ * carrying the random token it has written to its info file and exits once
+ * it has been idle for the configured timeout. A daemon is shared by all
+ * builds using the same Java home, compiler classpath and RoboVM home and
+ * version (see {@link CompilerDaemonClient}). It keeps the environment
+ * variables and system properties of the build which started it.
+ * <p>
+ * A request is a map of strings describing the build (see
+ * {@link AbstractRoboVMMojo#createDaemonRequest}). The daemon streams log
+ * messages back to the client while building and finishes with either
+ * {@link #SUCCESS} or {@link #FAILURE} followed by a stack trace. While
+ * building it sends a {@link #HEARTBEAT} every
+ * {@link #HEARTBEAT_INTERVAL} milliseconds so that clients can detect a
+ * daemon which has stopped responding.
+ * <p>
+ * When started with {@code --fork} a single build is read from stdin and
+ * the process exits once it has finished.
+ */
+public class CompilerDaemon {
+
+    static final byte DEBUG = 'D';
+    static final byte INFO = 'I';
+    static final byte WARN = 'W';
+    static final byte ERROR = 'E';
+    static final byte SUCCESS = 'S';
+    static final byte FAILURE = 'F';
+    static final byte HEARTBEAT = 'H';
+
+    static final long HEARTBEAT_INTERVAL = 10 * 1000;
+
+    /**
+     * Maximum length in bytes of a string in a request or response. Guards
+     * against allocating huge buffers for garbage sent by other processes.
+     */
+    static final int MAX_STRING_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * Maximum length in bytes of the token sent by clients.
+     */
+    private static final int MAX_TOKEN_LENGTH = 256;
+
+    static final String FORK = "--fork";
+
+    private final File infoFile;
+    private final long idleTimeout;
+    private final String token;
+    private final AtomicInteger activeBuilds = new AtomicInteger();
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    CompilerDaemon(File infoFile, long idleTimeout) {
+        this.infoFile = infoFile;
+        this.idleTimeout = idleTimeout;
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        this.token = Digests.toHex(bytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals(FORK)) {
+            System.exit(fork() ? 0 : 1);
+        }
+        if (args.length != 2) {
+            System.err.println("Usage: CompilerDaemon <info-file> <idle-timeout-seconds> | " + FORK);
+            System.exit(1);
+        }
+        new CompilerDaemon(new File(args[0]), Long.parseLong(args[1]) * 1000).run();
+    }
+
+    void run() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            writeInfoFile(serverSocket.getLocalPort());
+            // Wake up regularly, also with an idle timeout of 0, to check
+            // whether the daemon has been idle for long enough
+            serverSocket.setSoTimeout((int) Math.max(1000, Math.min(idleTimeout, 10000)));
+            while (true) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    activeBuilds.incrementAndGet();
+                    lastActivity = System.currentTimeMillis();
+                    Thread t = new Thread("robovm-daemon-build") {
+                        public void run() {
+                            try {
+                                handle(socket);
+                            } finally {
+                                lastActivity = System.currentTimeMillis();
+                                activeBuilds.decrementAndGet();
+                            }
+                        }
+                    };
+                    t.setDaemon(true);
+                    t.start();
+                } catch (SocketTimeoutException e) {
+                    if (activeBuilds.get() == 0
+                            && System.currentTimeMillis() - lastActivity >= idleTimeout) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            infoFile.delete();
+        }
+    }
+
+    private void writeInfoFile(int port) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("port", String.valueOf(port));
+        props.setProperty("token", token);
+        infoFile.getParentFile().mkdirs();
+        File tmp = File.createTempFile(infoFile.getName(), ".tmp", infoFile.getParentFile());
+        // Only the current user may read the token
+        tmp.setReadable(false, false);
+        tmp.setReadable(true, true);
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            props.store(out, "RoboVM compiler daemon");
+        }
+        Files.move(tmp.toPath(), infoFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            s.setSoTimeout(10000);
+            byte[] received = readBytes(in, MAX_TOKEN_LENGTH);
+            if (!MessageDigest.isEqual(token.getBytes("UTF-8"), received)) {
+                return;
+            }
+            s.setSoTimeout(0);
+            serve(readRequest(in), out);
+        } catch (IOException e) {
+            // Client went away. Nothing to report to.
+        }
+    }
+
+    /**
+     * Runs a single build read from stdin and exits, see
+     * {@link CompilerFork}. The log and the result are streamed to stdout.
+     * Anything else written to {@code System.out} while building is
+     * redirected to stderr to keep the channel intact.
+     */
+    static boolean fork() throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        return serve(readRequest(in), out);
+    }
+
+    /**
+     * Runs the specified build, streaming log messages and the result to
+     * {@code out}. Returns {@code true} if the build succeeded.
+     */
+    private static boolean serve(Map<String, String> request, final DataOutputStream out)
+            throws IOException {
+
+        Logger logger = new Logger() {
+            public void debug(String format, Object... args) {
+                send(out, DEBUG, String.format(format, args));
+            }
+            public void info(String format, Object... args) {
+                send(out, INFO, String.format(format, args));
+            }
+            public void warn(String format, Object... args) {
+                send(out, WARN, String.format(format, args));
+            }
+            public void error(String format, Object... args) {
+                send(out, ERROR, String.format(format, args));
+            }
+        };
+        Thread heartbeat = new Thread("robovm-daemon-heartbeat") {
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(HEARTBEAT_INTERVAL);
+                        synchronized (out) {
+                            out.writeByte(HEARTBEAT);
+                            out.flush();
+                        }
+                    }
+                } catch (InterruptedException | IOException e) {
+                    // Build finished or client went away
+                }
+            }
+        };
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        try {
+            build(request, logger);
+            stop(heartbeat);
+            synchronized (out) {
+                out.writeByte(SUCCESS);
+                out.flush();
+            }
+            return true;
+        } catch (Throwable t) {
+            stop(heartbeat);
+            StringWriter sw = new StringWriter();
+            t.printStackTrace(new PrintWriter(sw));
+            synchronized (out) {
+                out.writeByte(FAILURE);
+                writeString(out, sw.toString());
+                out.flush();
+            }
+            return false;
+        }
+    }
+
+    private static void stop(Thread heartbeat) {
+        heartbeat.interrupt();
+        try {
+            heartbeat.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void send(DataOutputStream out, byte type, String message) {
+        synchronized (out) {
+            try {
+                out.writeByte(type);
+                writeString(out, message);
+                out.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void build(Map<String, String> request, Logger logger) throws Exception {
+        Config.Builder builder = new Config.Builder();
+        builder.logger(logger);
+        if (request.containsKey("propertiesFiles")) {
+            for (String path : request.get("propertiesFiles").split(File.pathSeparator)) {
+                builder.addProperties(new File(path));
+            }
+        }
+        builder.read(new StringReader(request.get("config")), new File(request.get("basedir")));
+        builder.home(new Config.Home(new File(request.get("home"))))
+                .tmpDir(new File(request.get("tmpDir")))
+                .installDir(new File(request.get("installDir")))
+                .skipInstall(Boolean.parseBoolean(request.get("skipInstall")));
+        if (request.containsKey("cacheDir")) {
+            builder.cacheDir(new File(request.get("cacheDir")));
+        }
+        if (request.containsKey("threads")) {
+            builder.threads(Integer.parseInt(request.get("threads")));
+        }
+        if (request.containsKey("os")) {
+            builder.os(OS.valueOf(request.get("os")));
+        }
+        if (request.containsKey("arch")) {
+            builder.arch(Arch.valueOf(request.get("arch")));
+        }
+        if (request.containsKey("archs")) {
+            List<Arch> archs = new ArrayList<>();
+            for (String s : request.get("archs").split(":")) {
+                archs.add(Arch.valueOf(s));
+            }
+            builder.archs(archs);
+        }
+        if (request.containsKey("targetType")) {
+            builder.targetType(request.get("targetType"));
+        }
+        if (request.containsKey("enableBitcode")) {
+            builder.enableBitcode(Boolean.parseBoolean(request.get("enableBitcode")));
+        }
+        if (Boolean.parseBoolean(request.get("debug"))) {
+            builder.debug(true);
+        }
+        if (request.containsKey("pluginArguments")) {
+            for (String arg : request.get("pluginArguments").split("\n")) {
+                builder.addPluginArgument(arg);
+            }
+        }
+        if (Boolean.parseBoolean(request.get("skipSigning"))) {
+            builder.iosSkipSigning(true);
+        } else {
+            File profilesDir = request.containsKey("provisioningProfilesDir")
+                    ? new File(request.get("provisioningProfilesDir")) : null;
+            File cacheDir = request.containsKey("cacheDir")
+                    ? new File(request.get("cacheDir")) : null;
+            SigningCache signingCache = new SigningCache(profilesDir, cacheDir);
+            if (request.containsKey("signIdentity")) {
+                builder.iosSignIdentity(signingCache.findSigningIdentity(request.get("signIdentity")));
+            }
+            if (request.containsKey("provisioningProfile")) {
+                builder.iosProvisioningProfile(signingCache
+                        .findProvisioningProfile(request.get("provisioningProfile")));
+            }
+            if (request.containsKey("keychainPassword")) {
+                builder.keychainPassword(request.get("keychainPassword"));
+            } else if (request.containsKey("keychainPasswordFile")) {
+                builder.keychainPasswordFile(new File(request.get("keychainPasswordFile")));
+            }
+        }
+
+        AppCompiler compiler = new AppCompiler(builder.build());
+        compiler.build();
+        if ("archive".equals(request.get("mode"))) {
+            compiler.archive();
+        } else if ("install".equals(request.get("mode"))) {
+            compiler.install();
+        }
+    }
+
+    static Map<String, String> readRequest(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, String> request = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            request.put(readString(in), readString(in));
+        }
+        return request;
+    }
+
+    static void writeRequest(DataOutputStream out, Map<String, String> request) throws IOException {
+        out.writeInt(request.size());
+        for (Map.Entry<String, String> entry : request.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in, MAX_STRING_LENGTH), "UTF-8");
+    }
+
+    private static byte[] readBytes(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.plugin.logging.Log;
+import org.robovm.compiler.Version;
+import org.robovm.maven.common.Digests;
+
+/**
+ * Runs builds in a {@link CompilerDaemon}, starting a new daemon if none is
+ * running for the same Java home, classpath, JVM arguments and RoboVM home
+ * and version. Log messages produced by the daemon are forwarded to the
+ * specified {@link Log}.
+ */
+public class CompilerDaemonClient {
+
+    private static final long START_TIMEOUT = 60 * 1000;
+    private static final int CONNECT_TIMEOUT = 5 * 1000;
+    /**
+     * The daemon sends a heartbeat every
+     * {@link CompilerDaemon#HEARTBEAT_INTERVAL} milliseconds while building.
+     * A daemon which hasn't sent anything for this long is considered hung.
+     */
+    private static final int READ_TIMEOUT = (int) (6 * CompilerDaemon.HEARTBEAT_INTERVAL);
+
+    private final File daemonDir;
+    private final List<File> classpath;
+    private final List<String> jvmArgs;
+    private final int idleTimeout;
+    private final Log log;
+    private final String key;
+
+    /**
+     * Thrown when the daemon reports that a build failed. The message
+     * contains the stack trace of the failure in the daemon.
+     */
+    public static class BuildFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public BuildFailedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param daemonDir directory containing the info files and logs of
+     *            running daemons.
+     * @param classpath the classpath of the daemon. Must contain the
+     *            plugin and the RoboVM compiler.
+     * @param jvmArgs extra arguments passed to the daemon JVM.
+     * @param home the RoboVM home used by the builds.
+     * @param idleTimeout number of seconds the daemon stays alive without
+     *            any builds.
+     */
+    public CompilerDaemonClient(File daemonDir, List<File> classpath,
+            List<String> jvmArgs, File home, int idleTimeout, Log log) {
+
+        this.daemonDir = daemonDir;
+        this.classpath = classpath;
+        this.jvmArgs = jvmArgs;
+        this.idleTimeout = idleTimeout;
+        this.log = log;
+        // Only the hash ends up in the file names
+        StringBuilder sb = new StringBuilder(System.getProperty("java.home"));
+        for (File f : classpath) {
+            sb.append(File.pathSeparatorChar).append(f.getAbsolutePath())
+                    .append(':').append(f.length()).append(':').append(f.lastModified());
+        }
+        for (String arg : jvmArgs) {
+            sb.append(' ').append(arg);
+        }
+        sb.append('\n').append(home.getAbsolutePath()).append(':').append(Version.getVersion());
+        this.key = Digests.sha256(sb.toString()).substring(0, 12);
+    }
+
+    /**
+     * Sends the specified build request to the daemon and waits for the
+     * build to finish.
+     *
+     * @throws IOException if the daemon couldn't be started or reached or
+     *             died during the build.
+     * @throws BuildFailedException if the build failed.
+     */
+    public void build(Map<String, String> request) throws IOException, BuildFailedException {
+        try (Socket socket = connect()) {
+            socket.setSoTimeout(READ_TIMEOUT);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            CompilerDaemon.writeRequest(out, request);
+            out.flush();
+
+            readResponse(new DataInputStream(new BufferedInputStream(socket.getInputStream())), log);
+        }
+    }
+
+    /**
+     * Forwards log messages sent by a {@link CompilerDaemon} to the specified
+     * {@link Log} until the build has finished.
+     */
+    static void readResponse(DataInputStream in, Log log) throws IOException, BuildFailedException {
+        while (true) {
+            byte type = in.readByte();
+            switch (type) {
+            case CompilerDaemon.DEBUG:
+                log.debug(CompilerDaemon.readString(in));
+                break;
+            case CompilerDaemon.INFO:
+                log.info(CompilerDaemon.readString(in));
+                break;
+            case CompilerDaemon.WARN:
+                log.warn(CompilerDaemon.readString(in));
+                break;
+            case CompilerDaemon.ERROR:
+                log.error(CompilerDaemon.readString(in));
+                break;
+            case CompilerDaemon.HEARTBEAT:
+                break;
+            case CompilerDaemon.SUCCESS:
+                return;
+            case CompilerDaemon.FAILURE:
+                throw new BuildFailedException(CompilerDaemon.readString(in));
+            default:
+                throw new IOException("Unexpected message from RoboVM compiler: " + type);
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        File infoFile = new File(daemonDir, "daemon-" + key + ".properties");
+        Socket socket = tryConnect(infoFile);
+        if (socket != null) {
+            return socket;
+        }
+        // Make sure only one build starts a new daemon
+        try (Closeable lock = FileLocks.lockExclusive(new File(daemonDir, "daemon-" + key + ".lock"), log)) {
+            socket = tryConnect(infoFile);
+            if (socket != null) {
+                return socket;
+            }
+            infoFile.delete();
+            Process process = start(infoFile);
+            long deadline = System.currentTimeMillis() + START_TIMEOUT;
+            while (System.currentTimeMillis() < deadline) {
+                socket = tryConnect(infoFile);
+                if (socket != null) {
+                    return socket;
+                }
+                try {
+                    int exitValue = process.exitValue();
+                    throw new IOException("RoboVM compiler daemon exited with code " + exitValue
+                            + ", see " + getLogFile());
+                } catch (IllegalThreadStateException e) {
+                    // Still starting
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the RoboVM compiler daemon", e);
+                }
+            }
+            process.destroy();
+            throw new IOException("Timed out waiting for the RoboVM compiler daemon to start");
+        }
+    }
+
+    private Socket tryConnect(File infoFile) {
+        if (!infoFile.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(infoFile)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        String port = props.getProperty("port");
+        String token = props.getProperty("token");
+        if (port == null || token == null) {
+            return null;
+        }
+        Socket socket = null;
+        try {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(port)), CONNECT_TIMEOUT);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            CompilerDaemon.writeString(out, token);
+            out.flush();
+            return socket;
+        } catch (IOException | NumberFormatException e) {
+            // Stale info file left behind by a daemon which was killed
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e2) {}
+            }
+            return null;
+        }
+    }
+
+    private Process start(File infoFile) throws IOException {
+        StringBuilder cp = new StringBuilder();
+        for (File f : classpath) {
+            if (cp.length() > 0) {
+                cp.append(File.pathSeparatorChar);
+            }
+            cp.append(f.getAbsolutePath());
+        }
+        List<String> command = new ArrayList<>();
+        command.add(getJavaExecutable().getAbsolutePath());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(cp.toString());
+        command.add(CompilerDaemon.class.getName());
+        command.add(infoFile.getAbsolutePath());
+        command.add(String.valueOf(idleTimeout));
+
+        log.info("Starting RoboVM compiler daemon, log: " + getLogFile());
+        daemonDir.mkdirs();
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(getLogFile()));
+        return pb.start();
+    }
+
+    private File getLogFile() {
+        return new File(daemonDir, "daemon-" + key + ".log");
+    }
+
+    static File getJavaExecutable() {
+        File bin = new File(System.getProperty("java.home"), "bin");
+        File java = new File(bin, "java");
+        return java.exists() ? java : new File(bin, "java.exe");
+    }
+}
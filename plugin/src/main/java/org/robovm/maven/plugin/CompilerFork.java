@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs a single build in a new JVM with its own heap and GC settings. The
+ * child process is a {@link CompilerDaemon} started with {@code --fork}
+ * which reads the same requests as the daemon from stdin and streams log
+ * messages back through stdout. The memory used by the compiler is released
+ * as soon as the build has finished.
+ */
+public class CompilerFork {
+
+    private final List<File> classpath;
+    private final List<String> jvmArgs;
+    private final Log log;
+
+    /**
+     * @param classpath the classpath of the child JVM. Must contain the
+     *            plugin and the RoboVM compiler.
+     * @param jvmArgs extra arguments passed to the child JVM, e.g. heap and
+     *            GC settings.
+     */
+    public CompilerFork(List<File> classpath, List<String> jvmArgs, Log log) {
+        this.classpath = classpath;
+        this.jvmArgs = jvmArgs;
+        this.log = log;
+    }
+
+    /**
+     * Runs the specified build request in a new JVM and waits for it to
+     * finish.
+     *
+     * @throws IOException if the JVM couldn't be started or died during the
+     *             build.
+     * @throws CompilerDaemonClient.BuildFailedException if the build failed.
+     */
+    public void build(Map<String, String> request)
+            throws IOException, CompilerDaemonClient.BuildFailedException {
+
+        StringBuilder cp = new StringBuilder();
+        for (File f : classpath) {
+            if (cp.length() > 0) {
+                cp.append(File.pathSeparatorChar);
+            }
+            cp.append(f.getAbsolutePath());
+        }
+        List<String> command = new ArrayList<>();
+        command.add(CompilerDaemonClient.getJavaExecutable().getAbsolutePath());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(cp.toString());
+        command.add(CompilerDaemon.class.getName());
+        command.add(CompilerDaemon.FORK);
+
+        log.debug("Starting forked RoboVM compiler: " + command);
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = pb.start();
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(process.getOutputStream()))) {
+                CompilerDaemon.writeRequest(out, request);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            try {
+                CompilerDaemonClient.readResponse(in, log);
+            } catch (EOFException e) {
+                throw new IOException("Forked RoboVM compiler exited with code "
+                        + process.waitFor() + " before finishing the build");
+            }
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the forked RoboVM compiler", e);
+        } finally {
+            process.destroy();
+        }
+    }
+}
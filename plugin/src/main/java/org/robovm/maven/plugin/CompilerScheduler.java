@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.Closeable;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Hands out compiler thread budgets to the RoboVM builds running
+ * concurrently in a Maven session, e.g. in a reactor built with {@code -T}.
+ * The threads available to the session, either the number of cores or a
+ * configured cap, are shared evenly between all builds currently compiling
+ * or waiting to compile: a build waits until its fair share, {@code
+ * ceil(maxThreads / builds)}, is free and then reserves it. Builds compiling
+ * inside the Maven JVM additionally get no more threads than the free heap
+ * can accommodate. Budgets should only be held while compiling.
+ */
+public class CompilerScheduler {
+
+    /**
+     * Rough estimate of the heap needed by a single compiler thread.
+     */
+    static final long THREAD_HEAP = 256L * 1024 * 1024;
+
+    private static CompilerScheduler current;
+
+    private final Object sessionKey;
+    private int maxThreads;
+    private int usedThreads;
+    private int builds;
+
+    /**
+     * A number of compiler threads reserved for a build. Must be closed when
+     * the build has finished.
+     */
+    public class Budget implements Closeable {
+        private final int threads;
+        private boolean closed;
+
+        Budget(int threads) {
+            this.threads = threads;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        @Override
+        public void close() {
+            synchronized (CompilerScheduler.this) {
+                if (!closed) {
+                    closed = true;
+                    usedThreads -= threads;
+                    builds--;
+                    CompilerScheduler.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    private CompilerScheduler(Object sessionKey, int maxThreads) {
+        this.sessionKey = sessionKey;
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Returns the scheduler of the specified session. A new scheduler is
+     * created when a new session starts.
+     *
+     * @param maxThreads the maximum number of compiler threads used by all
+     *            builds of the session combined or {@code 0} to use the
+     *            number of available cores. The lowest cap requested by any
+     *            build in the session applies.
+     */
+    public static synchronized CompilerScheduler get(MavenSession session, int maxThreads) {
+        Object key = session != null ? session.getRequest() : null;
+        if (current == null || current.sessionKey != key) {
+            current = new CompilerScheduler(key, getCap(maxThreads));
+        } else {
+            synchronized (current) {
+                current.maxThreads = Math.min(current.maxThreads, getCap(maxThreads));
+            }
+        }
+        return current;
+    }
+
+    private int getFairShare() {
+        return Math.max(1, (maxThreads + builds - 1) / builds);
+    }
+
+    private static int getCap(int maxThreads) {
+        return maxThreads > 0 ? maxThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Reserves the fair share of compiler threads for a build, waiting for
+     * other builds to finish compiling until that many threads are free.
+     *
+     * @param inProcess {@code true} if the build runs inside the Maven JVM
+     *            and is thus limited by its free heap.
+     */
+    public synchronized Budget acquire(boolean inProcess, Log log) throws InterruptedException {
+        builds++;
+        // Waiting builds have to recompute their share
+        notifyAll();
+        int threads;
+        try {
+            while (true) {
+                // The share shrinks while other builds start waiting
+                threads = getFairShare();
+                if (maxThreads - usedThreads >= threads) {
+                    break;
+                }
+                log.debug("Waiting for other RoboVM builds to free " + threads + " compiler threads");
+                wait();
+            }
+        } catch (InterruptedException e) {
+            builds--;
+            notifyAll();
+            throw e;
+        }
+        if (inProcess) {
+            Runtime rt = Runtime.getRuntime();
+            long freeHeap = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+            threads = (int) Math.max(1, Math.min(threads, freeHeap / THREAD_HEAP));
+        }
+        usedThreads += threads;
+        log.debug("Using " + threads + " compiler threads (" + usedThreads + " of "
+                + maxThreads + " in use by " + builds + " builds)");
+        return new Budget(threads);
+    }
+}
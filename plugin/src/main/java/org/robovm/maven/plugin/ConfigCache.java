@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.util.xml.PrettyPrintXMLWriter;
+import org.codehaus.plexus.util.xml.XMLWriter;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.Xpp3DomWriter;
+import org.robovm.maven.common.Digests;
+
+/**
+ * Caches the config fragments read by {@link AbstractRoboVMMojo#configure}
+ * for the duration of a Maven session. All modules and goals of a reactor
+ * build share the same cache. Files are keyed by path and revalidated using
+ * their size, modification time and content hash. The config resulting from
+ * reading a set of fragments is cached by a key derived from the source file
+ * (or POM) and content hash of each fragment, so the fragments are only
+ * parsed once for every goal and execution which reads them.
+ */
+public class ConfigCache {
+
+    private static ConfigCache current;
+
+    private final Object sessionKey;
+    private final Map<String, CachedFile> files = new ConcurrentHashMap<>();
+    private final Map<String, String> resolvedConfigs = new ConcurrentHashMap<>();
+
+    private static class CachedFile {
+        final String stamp;
+        final String sha256;
+        final String content;
+        Properties properties;
+
+        CachedFile(String stamp, String sha256, String content) {
+            this.stamp = stamp;
+            this.sha256 = sha256;
+            this.content = content;
+        }
+    }
+
+    private ConfigCache(Object sessionKey) {
+        this.sessionKey = sessionKey;
+    }
+
+    /**
+     * Returns the cache for the specified session. A new cache is created
+     * when a new session starts.
+     */
+    public static synchronized ConfigCache get(MavenSession session) {
+        Object key = session != null ? session.getRequest() : null;
+        if (current == null || current.sessionKey != key) {
+            current = new ConfigCache(key);
+        }
+        return current;
+    }
+
+    private CachedFile getFile(File file) throws IOException {
+        file = file.getAbsoluteFile();
+        String stamp = file.length() + ":" + file.lastModified();
+        CachedFile cached = files.get(file.getPath());
+        if (cached != null && cached.stamp.equals(stamp)) {
+            return cached;
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String sha256 = Digests.sha256(bytes);
+        if (cached != null && cached.sha256.equals(sha256)) {
+            // Touched but unchanged
+            cached = new CachedFile(stamp, sha256, cached.content);
+        } else {
+            cached = new CachedFile(stamp, sha256, new String(bytes, "UTF-8"));
+        }
+        files.put(file.getPath(), cached);
+        return cached;
+    }
+
+    /**
+     * Returns the contents of the specified text file.
+     */
+    public String getContent(File file) throws IOException {
+        return getFile(file).content;
+    }
+
+    /**
+     * Returns the properties in the specified properties file. The returned
+     * object must not be modified.
+     */
+    public Properties getProperties(File file) throws IOException {
+        CachedFile cached = getFile(file);
+        synchronized (cached) {
+            if (cached.properties == null) {
+                Properties props = new Properties();
+                props.load(new StringReader(cached.content));
+                cached.properties = props;
+            }
+            return cached.properties;
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hash of the contents of the specified file.
+     */
+    public String getSha256(File file) throws IOException {
+        return getFile(file).sha256;
+    }
+
+    /**
+     * Serializes the specified {@code <config>} element to a string.
+     */
+    public static String serialize(Xpp3Dom configDom) {
+        StringWriter sw = new StringWriter();
+        XMLWriter xmlWriter = new PrettyPrintXMLWriter(sw, "UTF-8", null);
+        Xpp3DomWriter.write(xmlWriter, configDom);
+        return sw.toString();
+    }
+
+    /**
+     * Returns the config previously stored for the specified key using
+     * {@link #putResolvedConfig(String, String)} or {@code null}.
+     */
+    public String getResolvedConfig(String key) {
+        return resolvedConfigs.get(key);
+    }
+
+    /**
+     * Stores the config written by a builder after reading the fragments
+     * identified by the specified key.
+     */
+    public void putResolvedConfig(String key, String xml) {
+        resolvedConfigs.put(key, xml);
+    }
+}
@@ -49,7 +49,7 @@ public class ConsoleMojo extends AbstractRoboVMMojo {
             Config config = compiler.getConfig();
             LaunchParameters launchParameters = config.getTarget()
                     .createLaunchParameters();
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
 
         } catch (Throwable t) {
             throw new MojoExecutionException("Failed to launch console application", t);
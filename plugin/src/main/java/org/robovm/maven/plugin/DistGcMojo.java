@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Evicts unpacked RoboVM dists which haven't been used recently from the
+ * dist store specified via -Drobovm.distStore and removes files from the
+ * store which are no longer used by any dist.
+ */
+@Mojo(name = "dist-gc", requiresProject = false)
+public class DistGcMojo extends AbstractMojo {
+
+    /**
+     * The dist store to clean up.
+     */
+    @Parameter(property = "robovm.distStore")
+    protected File distStore;
+
+    /**
+     * Unpacked dists which haven't been used for this many days are evicted.
+     */
+    @Parameter(property = "robovm.distMaxAge", defaultValue = "30")
+    protected int maxAge = 30;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (distStore == null) {
+            throw new MojoFailureException("Specify the dist store to clean up via -Drobovm.distStore");
+        }
+        if (!distStore.isDirectory()) {
+            getLog().info("No RoboVM dist store found in " + distStore);
+            return;
+        }
+
+        DistStore store = new DistStore(distStore, getLog());
+        long cutoff = System.currentTimeMillis() - maxAge * 24L * 60 * 60 * 1000;
+        try {
+            for (Map.Entry<File, Long> version : store.getVersions().entrySet()) {
+                File dir = version.getKey();
+                if (!dir.exists()) {
+                    store.remove(dir);
+                } else if (version.getValue() < cutoff) {
+                    // Wait for builds still using the dist
+                    try (Closeable lock = FileLocks.lockExclusive(
+                            AbstractRoboVMMojo.getUseLockFile(dir), getLog())) {
+                        getLog().info("Evicting unused RoboVM dist " + dir);
+                        FileUtils.deleteDirectory(dir);
+                    }
+                    store.remove(dir);
+                }
+            }
+
+            try (Closeable lock = store.lockExclusive()) {
+                long freed = store.evictUnreferencedObjects();
+                if (freed == -1) {
+                    getLog().warn("Unable to determine which files in " + distStore
+                            + " are unused on this platform");
+                } else {
+                    getLog().info("Freed " + (freed / (1024 * 1024)) + " MB in " + distStore);
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to clean up " + distStore, e);
+        }
+    }
+}
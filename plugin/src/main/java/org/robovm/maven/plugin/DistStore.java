@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.logging.Log;
+import org.robovm.maven.common.Digests;
+
+/**
+ * Content-addressed store for the files of unpacked RoboVM dists. Each
+ * distinct file is kept once in the store, keyed by its SHA-256 and its
+ * permission bits, and every unpacked dist directory refers to it using a
+ * hard link. Since all links share the same inode the permissions and
+ * modification time are set once when the object is added to the store and
+ * are never changed through a link afterwards. Linked files therefore carry
+ * the modification time of the dist which first added them.
+ * <p>
+ * Dists of different RoboVM versions share most of their files, so this
+ * keeps the disk footprint of many versions close to that of a single one,
+ * and files already in the store don't have to be written again when
+ * another version is extracted.
+ * <p>
+ * The store also keeps track of when each unpacked dist directory was last
+ * used so that directories which haven't been used in a while can be evicted.
+ * Files are only removed from the store once no dist directory links to
+ * them anymore.
+ */
+public class DistStore {
+
+    private static final boolean POSIX = FileSystems.getDefault()
+            .supportedFileAttributeViews().contains("posix");
+
+    private final File dir;
+    private final File objectsDir;
+    private final File tmpDir;
+    private final File versionsFile;
+    private final Log log;
+    private volatile boolean linkingSupported = true;
+
+    public DistStore(File dir, Log log) {
+        this.dir = dir;
+        this.objectsDir = new File(dir, "objects");
+        this.tmpDir = new File(dir, "tmp");
+        this.versionsFile = new File(dir, "versions.properties");
+        this.log = log;
+    }
+
+    /**
+     * Acquires a shared lock on the store which prevents objects from being
+     * evicted while files are being added to it.
+     */
+    public Closeable lockShared() throws IOException {
+        return FileLocks.lockShared(new File(dir, ".lock"), log);
+    }
+
+    /**
+     * Acquires an exclusive lock on the store.
+     */
+    public Closeable lockExclusive() throws IOException {
+        return FileLocks.lockExclusive(new File(dir, ".lock"), log);
+    }
+
+    private File getObject(String sha256, int mode) {
+        // Extracted files are always readable and writable by the owner
+        String name = sha256 + "." + Integer.toOctalString((mode & 0777) | 0600);
+        return new File(new File(objectsDir, sha256.substring(0, 2)), name);
+    }
+
+    /**
+     * Creates {@code target} with the specified contents, as a hard link
+     * into the store if possible. {@code mode} and {@code lastModified} are
+     * only applied if the object is new to the store. The store must be
+     * locked.
+     */
+    public void materialize(Path target, byte[] data, int mode, long lastModified)
+            throws IOException {
+
+        File object = getObject(Digests.sha256(data), mode);
+        if (!object.exists()) {
+            File tmp = createTmpFile();
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(data);
+            }
+            addObject(tmp, object, mode, lastModified);
+        }
+        link(target, object);
+    }
+
+    /**
+     * Creates {@code target} with the contents read from the specified
+     * stream, as a hard link into the store if possible. {@code mode} and
+     * {@code lastModified} are only applied if the object is new to the
+     * store. The store must be locked.
+     */
+    public void materialize(Path target, InputStream in, int mode, long lastModified)
+            throws IOException {
+
+        File tmp = createTmpFile();
+        MessageDigest digest = Digests.newDigest();
+        try (OutputStream out = new DigestOutputStream(new FileOutputStream(tmp), digest)) {
+            byte[] buffer = new byte[1024 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        File object = getObject(Digests.toHex(digest.digest()), mode);
+        if (object.exists()) {
+            tmp.delete();
+        } else {
+            addObject(tmp, object, mode, lastModified);
+        }
+        link(target, object);
+    }
+
+    /**
+     * Replaces all regular files in the specified directory with hard links
+     * into the store. Used for dists which have been extracted without going
+     * through {@link #materialize(Path, InputStream, int, long)}. The store
+     * must be locked.
+     */
+    public void deduplicate(File f) throws IOException {
+        Path path = f.toPath();
+        if (Files.isSymbolicLink(path)) {
+            return;
+        }
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deduplicate(child);
+                }
+            }
+        } else if (f.isFile()) {
+            int mode = getMode(path);
+            File object = getObject(Digests.sha256(f), mode);
+            if (!object.exists()) {
+                File tmp = createTmpFile();
+                Files.copy(path, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                addObject(tmp, object, mode, f.lastModified());
+            }
+            Files.delete(path);
+            link(path, object);
+        }
+    }
+
+    private File createTmpFile() throws IOException {
+        tmpDir.mkdirs();
+        return File.createTempFile("object", ".tmp", tmpDir);
+    }
+
+    private static int getMode(Path path) throws IOException {
+        if (!POSIX) {
+            return path.toFile().canExecute() ? 0755 : 0644;
+        }
+        int mode = 0;
+        for (PosixFilePermission perm : Files.getPosixFilePermissions(path)) {
+            mode |= 0400 >> perm.ordinal();
+        }
+        return mode;
+    }
+
+    private void addObject(File tmp, File object, int mode, long lastModified)
+            throws IOException {
+
+        TarGzExtractor.setAttributes(tmp.toPath(), mode, lastModified, POSIX);
+        object.getParentFile().mkdirs();
+        try {
+            // Unlike a rename this never replaces an object which has been
+            // added (and possibly linked) concurrently by another thread
+            Files.createLink(object.toPath(), tmp.toPath());
+        } catch (FileAlreadyExistsException e) {
+            // Added concurrently by another thread
+        } catch (IOException | UnsupportedOperationException e) {
+            if (!object.exists()) {
+                Files.move(tmp.toPath(), object.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private void link(Path target, File object) throws IOException {
+        Files.deleteIfExists(target);
+        if (linkingSupported) {
+            try {
+                Files.createLink(target, object.toPath());
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // Most likely the store is on another file system
+                log.debug("Failed to create hard link " + target + " -> " + object
+                        + ", copying files instead: " + e);
+                linkingSupported = false;
+            }
+        }
+        Files.copy(object.toPath(), target, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    /**
+     * Records that the specified unpacked dist directory has been used now.
+     */
+    public void markUsed(File unpackedDir) throws IOException {
+        try (Closeable lock = FileLocks.lockExclusive(new File(dir, "versions.lock"), log)) {
+            Properties versions = loadVersions();
+            versions.setProperty(unpackedDir.getAbsolutePath(),
+                    String.valueOf(System.currentTimeMillis()));
+            storeVersions(versions);
+        }
+    }
+
+    /**
+     * Returns the unpacked dist directories which refer to the store mapped
+     * to the time they were last used.
+     */
+    public Map<File, Long> getVersions() throws IOException {
+        Map<File, Long> result = new TreeMap<>();
+        try (Closeable lock = FileLocks.lockExclusive(new File(dir, "versions.lock"), log)) {
+            Properties versions = loadVersions();
+            for (String key : versions.stringPropertyNames()) {
+                try {
+                    result.put(new File(key), Long.parseLong(versions.getProperty(key)));
+                } catch (NumberFormatException e) {
+                    result.put(new File(key), 0L);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets about an evicted unpacked dist directory.
+     */
+    public void remove(File unpackedDir) throws IOException {
+        try (Closeable lock = FileLocks.lockExclusive(new File(dir, "versions.lock"), log)) {
+            Properties versions = loadVersions();
+            versions.remove(unpackedDir.getAbsolutePath());
+            storeVersions(versions);
+        }
+    }
+
+    /**
+     * Removes objects which aren't linked from any unpacked dist directory
+     * anymore. The store must be locked exclusively.
+     *
+     * @return the number of bytes freed or -1 if link counts aren't
+     *         supported on this platform.
+     */
+    public long evictUnreferencedObjects() throws IOException {
+        long freed = 0;
+        File[] prefixes = objectsDir.listFiles();
+        if (prefixes == null) {
+            return 0;
+        }
+        for (File prefix : prefixes) {
+            File[] objects = prefix.listFiles();
+            if (objects == null) {
+                continue;
+            }
+            for (File object : objects) {
+                int links;
+                try {
+                    links = ((Number) Files.getAttribute(object.toPath(), "unix:nlink")).intValue();
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    return -1;
+                }
+                if (links <= 1) {
+                    long length = object.length();
+                    if (object.delete()) {
+                        freed += length;
+                    }
+                }
+            }
+        }
+        return freed;
+    }
+
+    private Properties loadVersions() throws IOException {
+        Properties props = new Properties();
+        if (versionsFile.exists()) {
+            try (InputStream in = new FileInputStream(versionsFile)) {
+                props.load(in);
+            }
+        }
+        return props;
+    }
+
+    private void storeVersions(Properties props) throws IOException {
+        dir.mkdirs();
+        File tmp = File.createTempFile("versions", ".tmp", dir);
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            props.store(out, "Unpacked RoboVM dists and when they were last used");
+        }
+        Files.move(tmp.toPath(), versionsFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+}
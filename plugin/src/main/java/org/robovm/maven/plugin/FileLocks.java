@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Read/write locks backed by lock files which coordinate both the threads of
+ * a parallel reactor build and separate Maven processes sharing the same
+ * files (e.g. CI jobs sharing {@code ~/.m2}).
+ * <p>
+ * {@link FileChannel#lock()} locks are held on behalf of the whole JVM and
+ * may not overlap within it, so threads are first coordinated using a
+ * {@link ReentrantReadWriteLock} per lock file. Shared file locks are
+ * reference counted and held as long as any thread in this JVM holds a
+ * shared lock.
+ */
+public final class FileLocks {
+
+    private static final Map<String, Entry> ENTRIES = new HashMap<>();
+
+    private static class Entry {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        FileChannel channel;
+        FileLock fileLock;
+        int sharedCount;
+    }
+
+    private FileLocks() {
+    }
+
+    private static Entry entry(File lockFile) throws IOException {
+        String key = lockFile.getCanonicalPath();
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                ENTRIES.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    private static FileChannel open(File lockFile) throws IOException {
+        lockFile.getParentFile().mkdirs();
+        return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static FileLock lock(FileChannel channel, boolean shared, File lockFile, Log log)
+            throws IOException {
+
+        FileLock fileLock = channel.tryLock(0, Long.MAX_VALUE, shared);
+        if (fileLock == null) {
+            log.info("Waiting for another build to release " + lockFile);
+            fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+        }
+        return fileLock;
+    }
+
+    /**
+     * Acquires an exclusive lock on the specified lock file, blocking until
+     * no other thread or process holds a lock on it.
+     */
+    public static Closeable lockExclusive(final File lockFile, Log log) throws IOException {
+        final Entry entry = entry(lockFile);
+        entry.lock.writeLock().lock();
+        final FileChannel channel;
+        final FileLock fileLock;
+        try {
+            channel = open(lockFile);
+            try {
+                fileLock = lock(channel, false, lockFile, log);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            entry.lock.writeLock().unlock();
+            throw e;
+        }
+        return new Closeable() {
+            public void close() throws IOException {
+                try {
+                    fileLock.release();
+                    channel.close();
+                } finally {
+                    entry.lock.writeLock().unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Acquires an exclusive lock on the specified lock file if no other
+     * thread or process holds a lock on it. Returns {@code null} otherwise.
+     */
+    public static Closeable tryLockExclusive(final File lockFile) throws IOException {
+        final Entry entry = entry(lockFile);
+        if (!entry.lock.writeLock().tryLock()) {
+            return null;
+        }
+        final FileChannel channel;
+        final FileLock fileLock;
+        try {
+            channel = open(lockFile);
+            try {
+                fileLock = channel.tryLock(0, Long.MAX_VALUE, false);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            if (fileLock == null) {
+                channel.close();
+                entry.lock.writeLock().unlock();
+                return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            entry.lock.writeLock().unlock();
+            throw e;
+        }
+        return new Closeable() {
+            public void close() throws IOException {
+                try {
+                    fileLock.release();
+                    channel.close();
+                } finally {
+                    entry.lock.writeLock().unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Acquires a shared lock on the specified lock file, blocking while
+     * another thread or process holds an exclusive lock on it.
+     */
+    public static Closeable lockShared(final File lockFile, Log log) throws IOException {
+        final Entry entry = entry(lockFile);
+        entry.lock.readLock().lock();
+        try {
+            synchronized (entry) {
+                if (entry.sharedCount == 0) {
+                    entry.channel = open(lockFile);
+                    try {
+                        entry.fileLock = lock(entry.channel, true, lockFile, log);
+                    } catch (IOException | RuntimeException e) {
+                        entry.channel.close();
+                        entry.channel = null;
+                        throw e;
+                    }
+                }
+                entry.sharedCount++;
+            }
+        } catch (IOException | RuntimeException e) {
+            entry.lock.readLock().unlock();
+            throw e;
+        }
+        return new Closeable() {
+            public void close() throws IOException {
+                try {
+                    synchronized (entry) {
+                        if (--entry.sharedCount == 0) {
+                            try {
+                                entry.fileLock.release();
+                                entry.channel.close();
+                            } finally {
+                                entry.fileLock = null;
+                                entry.channel = null;
+                            }
+                        }
+                    }
+                } finally {
+                    entry.lock.readLock().unlock();
+                }
+            }
+        };
+    }
+}
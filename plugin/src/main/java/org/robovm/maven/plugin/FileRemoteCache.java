@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * {@link RemoteCache} stored in a directory, typically on a network share.
+ * Objects are written to a temporary file first and renamed into place so
+ * readers never see partially written objects.
+ */
+public class FileRemoteCache implements RemoteCache {
+
+    private final File dir;
+
+    public FileRemoteCache(File dir) {
+        this.dir = dir;
+    }
+
+    private File getFile(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        try {
+            return new FileInputStream(getFile(key));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, File file) throws IOException {
+        File dest = getFile(key);
+        if (dest.exists()) {
+            return;
+        }
+        dest.getParentFile().mkdirs();
+        File tmp = File.createTempFile(".tmp-", null, dest.getParentFile());
+        try {
+            Files.copy(file.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return dir.toString();
+    }
+}
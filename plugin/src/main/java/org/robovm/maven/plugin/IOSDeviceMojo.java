@@ -48,7 +48,7 @@ public class IOSDeviceMojo extends AbstractRoboVMMojo {
             Config config = compiler.getConfig();
             LaunchParameters launchParameters = config.getTarget()
                     .createLaunchParameters();
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
 
         } catch (Throwable t) {
             throw new MojoExecutionException("Failed to launch IOS Device", t);
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal helpers for writing and reading the JSON reports produced by the
+ * plugin.
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Returns the specified string as a quoted JSON string or {@code null}.
+     */
+    public static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Parses the specified JSON document. Objects are returned as
+     * {@link Map}s, arrays as {@link List}s, numbers as {@link Long}s or, if
+     * they have a fraction or exponent, {@link Double}s.
+     *
+     * @throws IOException if the document isn't valid JSON.
+     */
+    public static Object parse(String json) throws IOException {
+        Parser parser = new Parser(json);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.pos != json.length()) {
+            throw parser.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    private static class Parser {
+        final String s;
+        int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        IOException error(String message) {
+            return new IOException(message + " at offset " + pos);
+        }
+
+        void skipWhitespace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        char peek() throws IOException {
+            skipWhitespace();
+            if (pos >= s.length()) {
+                throw error("Unexpected end of document");
+            }
+            return s.charAt(pos);
+        }
+
+        void expect(char c) throws IOException {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        Object value() throws IOException {
+            char c = peek();
+            switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return number();
+                }
+                throw error("Unexpected character '" + c + "'");
+            }
+        }
+
+        Map<String, Object> object() throws IOException {
+            Map<String, Object> map = new LinkedHashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                if (peek() != '"') {
+                    throw error("Expected a string");
+                }
+                String key = string();
+                expect(':');
+                map.put(key, value());
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        List<Object> array() throws IOException {
+            List<Object> list = new ArrayList<>();
+            expect('[');
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        String string() throws IOException {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < s.length()) {
+                char c = s.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= s.length()) {
+                    break;
+                }
+                c = s.charAt(pos++);
+                switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > s.length()) {
+                        throw error("Invalid escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(c);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        Object literal(String text, Object value) throws IOException {
+            if (!s.startsWith(text, pos)) {
+                throw error("Unexpected token");
+            }
+            pos += text.length();
+            return value;
+        }
+
+        Object number() throws IOException {
+            int start = pos;
+            boolean integral = true;
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    integral = false;
+                } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                    break;
+                }
+                pos++;
+            }
+            String text = s.substring(start, pos);
+            try {
+                return integral ? (Object) Long.valueOf(text) : (Object) Double.valueOf(text);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number '" + text + "'");
+            }
+        }
+    }
+}
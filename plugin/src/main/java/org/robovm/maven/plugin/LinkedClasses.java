@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.robovm.compiler.config.Config;
+import org.robovm.maven.common.ClassInfo;
+
+/**
+ * Approximates the classes the RoboVM linker will link for a config without
+ * running the compiler: the main class, the classes matching the
+ * {@code forceLinkClasses} patterns and all classes they transitively
+ * reference according to {@link ClassInfo}. Class names use the internal
+ * form, e.g. {@code java/lang/Object}.
+ * <p>
+ * Since {@link ClassInfo} collects references conservatively the result
+ * usually is a superset of what the linker links. Classes only the runtime
+ * or native code refers to may be missing.
+ */
+public class LinkedClasses {
+
+    private LinkedClasses() {
+    }
+
+    /**
+     * Returns the classes which will likely be linked for the specified
+     * config or {@code null} if the config has no main class, in which case
+     * all classes may be linked.
+     */
+    public static Set<String> find(Config config) throws IOException {
+        if (config.getMainClass() == null) {
+            return null;
+        }
+        List<File> classpath = new ArrayList<>();
+        classpath.addAll(config.getBootclasspath());
+        classpath.addAll(config.getClasspath());
+        List<String> forceLinkClasses = config.getForceLinkClasses();
+        return find(classpath, config.getMainClass(), forceLinkClasses != null
+                ? forceLinkClasses : Collections.<String>emptyList());
+    }
+
+    /**
+     * Returns the classes on the specified classpath reachable from the
+     * specified main class and the classes matching the specified
+     * {@code forceLinkClasses} patterns, e.g. {@code com.example.**}.
+     */
+    static Set<String> find(List<File> classpath, String mainClass,
+            List<String> forceLinkClasses) throws IOException {
+
+        try (ClassPath cp = new ClassPath(classpath)) {
+            Deque<String> queue = new ArrayDeque<>();
+            Set<String> linked = new HashSet<>();
+            queue.add(mainClass.replace('.', '/'));
+            if (!forceLinkClasses.isEmpty()) {
+                List<Pattern> patterns = new ArrayList<>();
+                for (String s : forceLinkClasses) {
+                    patterns.add(toPattern(s));
+                }
+                for (String className : cp.getClassNames()) {
+                    String dotted = className.replace('/', '.');
+                    for (Pattern p : patterns) {
+                        if (p.matcher(dotted).matches()) {
+                            queue.add(className);
+                            break;
+                        }
+                    }
+                }
+            }
+            while (!queue.isEmpty()) {
+                String className = queue.poll();
+                if (linked.contains(className)) {
+                    continue;
+                }
+                byte[] bytes = cp.read(className);
+                if (bytes == null) {
+                    continue;
+                }
+                linked.add(className);
+                try {
+                    for (String ref : ClassInfo.parse(bytes).getReferences()) {
+                        if (!linked.contains(ref)) {
+                            queue.add(ref);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Unparsable. The compiler will complain about it.
+                }
+            }
+            return linked;
+        }
+    }
+
+    /**
+     * Converts a {@code forceLinkClasses} pattern into a regex. {@code **}
+     * matches any number of packages, {@code *} matches within a package.
+     */
+    static Pattern toPattern(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*') {
+                if (i + 1 < s.length() && s.charAt(i + 1) == '*') {
+                    sb.append(".*");
+                    i++;
+                } else {
+                    sb.append("[^.]*");
+                }
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+    /**
+     * Reads classes from a classpath. Earlier entries shadow later ones.
+     */
+    private static class ClassPath implements Closeable {
+        private final List<File> entries;
+        private final Map<File, ZipFile> zipFiles = new HashMap<>();
+
+        ClassPath(List<File> entries) {
+            this.entries = entries;
+        }
+
+        byte[] read(String className) throws IOException {
+            String name = className + ".class";
+            for (File entry : entries) {
+                if (entry.isDirectory()) {
+                    File f = new File(entry, name);
+                    if (f.isFile()) {
+                        return Files.readAllBytes(f.toPath());
+                    }
+                } else if (entry.isFile()) {
+                    ZipFile zip = getZipFile(entry);
+                    ZipEntry ze = zip.getEntry(name);
+                    if (ze != null) {
+                        try (InputStream in = zip.getInputStream(ze)) {
+                            return IOUtils.toByteArray(in);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        Set<String> getClassNames() throws IOException {
+            Set<String> names = new HashSet<>();
+            for (File entry : entries) {
+                if (entry.isDirectory()) {
+                    addClassNames(entry, "", names);
+                } else if (entry.isFile()) {
+                    Enumeration<? extends ZipEntry> zipEntries = getZipFile(entry).entries();
+                    while (zipEntries.hasMoreElements()) {
+                        String name = zipEntries.nextElement().getName();
+                        if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+                            names.add(name.substring(0, name.length() - 6));
+                        }
+                    }
+                }
+            }
+            return names;
+        }
+
+        private static void addClassNames(File dir, String prefix, Set<String> names) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    addClassNames(f, prefix + f.getName() + "/", names);
+                } else if (f.getName().endsWith(".class")) {
+                    names.add(prefix + f.getName().substring(0, f.getName().length() - 6));
+                }
+            }
+        }
+
+        private ZipFile getZipFile(File entry) throws IOException {
+            ZipFile zip = zipFiles.get(entry);
+            if (zip == null) {
+                zip = new ZipFile(entry);
+                zipFiles.put(entry, zip);
+            }
+            return zip;
+        }
+
+        public void close() throws IOException {
+            for (ZipFile zip : zipFiles.values()) {
+                zip.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Compares the compile time, link time, executable size and install dir
+ * footprint of the last build of the app (see the {@code robovm:install} and
+ * {@code robovm:archive} goals) against a baseline committed with the
+ * project and fails the build if any of them regressed by more than the
+ * configured threshold.
+ * <p>
+ * The times are only compared if the last build started with a compiled
+ * class cache about as warm as the build the baseline was recorded from,
+ * i.e. if the share of classes which had to be compiled rather than reused
+ * differs by at most {@value #MAX_WARMTH_DIFFERENCE} percentage points.
+ */
+@Mojo(name = "perf-check", defaultPhase = LifecyclePhase.VERIFY)
+public class PerfCheckMojo extends AbstractMojo {
+
+    private static final String COMPILE_TIME = "compileTime";
+    private static final String LINK_TIME = "linkTime";
+    private static final String EXECUTABLE_SIZE = "executableSize";
+    private static final String INSTALL_DIR_SIZE = "installDirSize";
+    private static final String CLASSES_COMPILED = "classesCompiled";
+    private static final String CLASSES_REUSED = "classesReused";
+
+    private static final int MAX_WARMTH_DIFFERENCE = 10;
+    private static final long MTIME_RESOLUTION = 2000;
+
+    /**
+     * The directory the app was installed to.
+     */
+    @Parameter(property="robovm.installDir", defaultValue="${project.build.directory}/robovm")
+    protected File installDir;
+
+    /**
+     * The statistics written by the last build.
+     */
+    @Parameter(defaultValue="${project.build.directory}/robovm-build-stats.json", readonly=true)
+    protected File statsFile;
+
+    /**
+     * The baseline to compare against.
+     */
+    @Parameter(property="robovm.perfBaseline", defaultValue="${basedir}/robovm-perf-baseline.properties")
+    protected File baseline;
+
+    /**
+     * The executable to measure, relative to {@code installDir}. By default
+     * the largest executable file in {@code installDir} or in an app bundle
+     * in {@code installDir} is used.
+     */
+    @Parameter(property="robovm.perfExecutable")
+    protected String executable;
+
+    /**
+     * The percentage by which compile and link times may exceed the
+     * baseline.
+     */
+    @Parameter(property="robovm.perfTimeThreshold", defaultValue="25")
+    protected int timeThreshold = 25;
+
+    /**
+     * The percentage by which the executable size and install dir footprint
+     * may exceed the baseline.
+     */
+    @Parameter(property="robovm.perfSizeThreshold", defaultValue="10")
+    protected int sizeThreshold = 10;
+
+    /**
+     * If set to {@code false} regressions are only logged as warnings.
+     */
+    @Parameter(property="robovm.perfFailOnRegression", defaultValue="true")
+    protected boolean failOnRegression = true;
+
+    /**
+     * If set to {@code true} the baseline is replaced with the current values
+     * instead of being checked.
+     */
+    @Parameter(property="robovm.perfUpdateBaseline")
+    protected boolean updateBaseline = false;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (!installDir.isDirectory()) {
+            throw new MojoFailureException("No RoboVM app found in " + installDir
+                    + ", run robovm:install or robovm:archive first");
+        }
+
+        Map<String, Long> current = new LinkedHashMap<>();
+        Map<String, Long> classes = new LinkedHashMap<>();
+        try {
+            readTimes(current, classes);
+            File exe = findExecutable();
+            if (exe != null) {
+                current.put(EXECUTABLE_SIZE, exe.length());
+            }
+            current.put(INSTALL_DIR_SIZE, sizeOf(installDir));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to measure RoboVM app in " + installDir, e);
+        }
+
+        if (updateBaseline) {
+            Map<String, Long> values = new LinkedHashMap<>(current);
+            if (current.containsKey(COMPILE_TIME)) {
+                values.putAll(classes);
+            }
+            writeBaseline(values);
+            getLog().info("Updated RoboVM performance baseline " + baseline);
+            return;
+        }
+        if (!baseline.exists()) {
+            getLog().info("No RoboVM performance baseline found in " + baseline
+                    + ", create one using -Drobovm.perfUpdateBaseline=true");
+            return;
+        }
+
+        Properties base = new Properties();
+        try (InputStream in = new FileInputStream(baseline)) {
+            base.load(in);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read " + baseline, e);
+        }
+
+        boolean timesSkipped = false;
+        Integer baseWarmth = warmth(parseLong(base, CLASSES_COMPILED), parseLong(base, CLASSES_REUSED));
+        Integer warmth = warmth(classes.get(CLASSES_COMPILED), classes.get(CLASSES_REUSED));
+        if (current.containsKey(COMPILE_TIME) && baseWarmth != null
+                && (warmth == null || Math.abs(warmth - baseWarmth) > MAX_WARMTH_DIFFERENCE)) {
+            getLog().info("Not comparing compile and link times, the last build compiled "
+                    + (warmth != null ? warmth + "%" : "an unknown share") + " of its classes while the "
+                    + "baseline build compiled " + baseWarmth + "%");
+            current.remove(COMPILE_TIME);
+            current.remove(LINK_TIME);
+            timesSkipped = true;
+        }
+
+        int regressions = 0;
+        for (Map.Entry<String, Long> e : current.entrySet()) {
+            String name = e.getKey();
+            String baseValue = base.getProperty(name);
+            if (baseValue == null) {
+                continue;
+            }
+            long expected;
+            try {
+                expected = Long.parseLong(baseValue.trim());
+            } catch (NumberFormatException ex) {
+                throw new MojoFailureException("Invalid value '" + baseValue + "' for " + name
+                        + " in RoboVM performance baseline " + baseline);
+            }
+            long actual = e.getValue();
+            int threshold = name.endsWith("Time") ? timeThreshold : sizeThreshold;
+            double change = expected > 0 ? (actual - expected) * 100.0 / expected : 0;
+            String line = String.format(Locale.ENGLISH, "%-16s %14s  baseline %14s  %+7.1f%% (threshold %d%%)",
+                    name, format(name, actual), format(name, expected), change, threshold);
+            if (change > threshold) {
+                regressions++;
+                getLog().warn(line);
+            } else {
+                getLog().info(line);
+            }
+        }
+        for (String name : new String[] { COMPILE_TIME, LINK_TIME }) {
+            if (!timesSkipped && !current.containsKey(name) && base.containsKey(name)) {
+                getLog().info(name + " not available, no build statistics found in " + statsFile);
+            }
+        }
+
+        if (regressions > 0) {
+            String message = regressions + " RoboVM performance metric(s) exceeded the baseline in "
+                    + baseline;
+            if (failOnRegression) {
+                throw new MojoFailureException(message);
+            }
+            getLog().warn(message);
+        }
+    }
+
+    private Long parseLong(Properties props, String name) throws MojoFailureException {
+        String value = props.getProperty(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new MojoFailureException("Invalid value '" + value + "' for " + name
+                    + " in RoboVM performance baseline " + baseline);
+        }
+    }
+
+    /**
+     * Returns the percentage of classes which have been compiled rather than
+     * reused from the cache or {@code null} if unknown.
+     */
+    private static Integer warmth(Long compiled, Long reused) {
+        if (compiled == null || reused == null || compiled + reused == 0) {
+            return null;
+        }
+        return (int) Math.round(compiled * 100.0 / (compiled + reused));
+    }
+
+    private static String format(String name, long value) {
+        if (name.endsWith("Time")) {
+            return String.format(Locale.ENGLISH, "%.1f s", value / 1000.0);
+        }
+        return CacheGc.formatSize(value);
+    }
+
+    /**
+     * Reads the compile and link times and the number of compiled and reused
+     * classes from {@link #statsFile} if it has been written by the build of
+     * the app in {@link #installDir}, i.e. not by e.g. a
+     * {@code robovm:console} run after the last {@code robovm:install} or by
+     * a build which failed afterwards. The build's fingerprint is stored
+     * right before its statistics, so the statistics belong to the installed
+     * app if the fingerprint was written after the build started and before
+     * the statistics.
+     */
+    private void readTimes(Map<String, Long> current, Map<String, Long> classes) throws IOException {
+        if (!statsFile.exists()) {
+            return;
+        }
+        Object stats;
+        try {
+            stats = Json.parse(new String(Files.readAllBytes(statsFile.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IOException("Failed to parse " + statsFile + ": " + e.getMessage(), e);
+        }
+        if (!(stats instanceof Map)) {
+            return;
+        }
+        Object mode = ((Map<?, ?>) stats).get("mode");
+        if (!"install".equals(mode) && !"archive".equals(mode)) {
+            getLog().info("Ignoring build statistics in " + statsFile + " written by a "
+                    + (mode != null ? mode : "previous") + " build, run robovm:install or "
+                    + "robovm:archive to measure compile and link times");
+            return;
+        }
+        Object timestamp = ((Map<?, ?>) stats).get("timestamp");
+        File fingerprint = new File(installDir.getParentFile(),
+                installDir.getName() + "." + mode + ".fingerprint");
+        // Allow for file systems storing modification times in seconds
+        if (!(timestamp instanceof Long) || !fingerprint.exists()
+                || fingerprint.lastModified() + MTIME_RESOLUTION < (Long) timestamp
+                || fingerprint.lastModified() > statsFile.lastModified() + MTIME_RESOLUTION) {
+            getLog().info("Ignoring build statistics in " + statsFile + " which don't belong to "
+                    + "the app in " + installDir);
+            return;
+        }
+        Object phases = ((Map<?, ?>) stats).get("phases");
+        if (!(phases instanceof Map)) {
+            return;
+        }
+        Object compile = ((Map<?, ?>) phases).get("compile");
+        Object link = ((Map<?, ?>) phases).get("link");
+        if (compile instanceof Long) {
+            current.put(COMPILE_TIME, (Long) compile);
+        }
+        if (link instanceof Long) {
+            current.put(LINK_TIME, (Long) link);
+        }
+        Object counts = ((Map<?, ?>) stats).get("classes");
+        if (counts instanceof Map) {
+            Object compiled = ((Map<?, ?>) counts).get("compiled");
+            Object restored = ((Map<?, ?>) counts).get("restored");
+            Object reused = ((Map<?, ?>) counts).get("reused");
+            if (compiled instanceof Long && reused instanceof Long) {
+                classes.put(CLASSES_COMPILED, (Long) compiled);
+                classes.put(CLASSES_REUSED, (Long) reused
+                        + (restored instanceof Long ? (Long) restored : 0));
+            }
+        }
+    }
+
+    private File findExecutable() {
+        if (executable != null) {
+            File f = new File(installDir, executable);
+            return f.isFile() ? f : null;
+        }
+        File largest = null;
+        File[] files = installDir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (File f : files) {
+            File[] candidates = f.isDirectory() && f.getName().endsWith(".app")
+                    ? f.listFiles() : new File[] { f };
+            if (candidates == null) {
+                continue;
+            }
+            for (File c : candidates) {
+                if (c.isFile() && c.canExecute() && (largest == null || c.length() > largest.length())) {
+                    largest = c;
+                }
+            }
+        }
+        return largest;
+    }
+
+    private static long sizeOf(File f) {
+        if (Files.isSymbolicLink(f.toPath())) {
+            return 0;
+        }
+        if (f.isFile()) {
+            return f.length();
+        }
+        long size = 0;
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    private void writeBaseline(Map<String, Long> current) throws MojoExecutionException {
+        Properties props = new Properties();
+        for (Map.Entry<String, Long> e : current.entrySet()) {
+            props.setProperty(e.getKey(), String.valueOf(e.getValue()));
+        }
+        try (OutputStream out = new FileOutputStream(baseline)) {
+            props.store(out, "RoboVM performance baseline. Times in ms, sizes in bytes.");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + baseline, e);
+        }
+    }
+}
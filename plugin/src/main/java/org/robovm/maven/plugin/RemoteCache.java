@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A remote tier for the compiled class cache which can be shared by several
+ * machines. See {@link RemoteCacheSync} for how objects are keyed.
+ */
+public interface RemoteCache {
+
+    /**
+     * Returns the contents of the object with the specified key or
+     * {@code null} if there is no such object.
+     */
+    InputStream get(String key) throws IOException;
+
+    /**
+     * Stores the specified file as the object with the specified key.
+     */
+    void put(String key, File file) throws IOException;
+}
@@ -0,0 +1,624 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+import org.robovm.compiler.Version;
+import org.robovm.compiler.config.Config;
+import org.robovm.maven.common.Digests;
+
+/**
+ * Synchronizes the local compiled class cache ({@code cacheDir}) with a
+ * {@link RemoteCache}. Before compiling, compiled classes missing from the
+ * local cache are fetched from the remote cache (read-through). After a
+ * successful build, classes compiled locally are uploaded (write-back).
+ * <p>
+ * Remote objects are keyed by the SHA-256 of the class bytes, the RoboVM
+ * version, the os, arch and build variant of the cache and a hash of the
+ * classes the compiled class may depend on: classes on the boot classpath
+ * only depend on the boot classpath, classes in jars depend on all jars and
+ * classes in directories depend on the whole classpath. Each compiled class
+ * is stored as one object per file the compiler produced for it (e.g.
+ * {@code Foo.class.o}) plus an index object listing the SHA-256 of each file
+ * which is verified after downloading. The {@code .o} file is moved into
+ * place last, so the compiler never picks up a partially restored class.
+ * <p>
+ * Only classes which will likely be linked (see {@link LinkedClasses}) are
+ * fetched. Classes found to be missing from the remote cache are remembered
+ * for the rest of the Maven session and not looked up again.
+ * <p>
+ * The class hashes of each classpath entry are kept in
+ * {@code cacheDir/remote-index} together with the keys of the classes
+ * already uploaded, so unchanged jars are neither rehashed nor uploaded
+ * again.
+ */
+public class RemoteCacheSync {
+
+    private static final int THREADS = 8;
+    private static final String O_SUFFIX = ".o";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static Object sessionKey;
+    private static final Map<String, Set<String>> sessionMisses = new HashMap<>();
+
+    private final RemoteCache remote;
+    private final Set<String> misses;
+    private final Set<File> restoredFiles = Collections.newSetFromMap(
+            new ConcurrentHashMap<File, Boolean>());
+    private final File cacheRoot;
+    private final File indexDir;
+    private final Log log;
+
+    private static class Entry {
+        File source;
+        File localDir;
+        File indexFile;
+        Properties index;
+        Map<String, String> classHashes = new TreeMap<>();
+        String contentHash;
+        String depsKey;
+        boolean dirty;
+    }
+
+    private static class Unit {
+        final Entry entry;
+        final String className;
+        final String key;
+        final File oFile;
+
+        Unit(Entry entry, String className, String key) {
+            this.entry = entry;
+            this.className = className;
+            this.key = key;
+            this.oFile = new File(entry.localDir, className + ".class" + O_SUFFIX);
+        }
+
+        /**
+         * Returns {@code true} if the compiled class is at least as recent
+         * as the class file, i.e. it hasn't been left behind by an earlier
+         * version of the class which the last build didn't need to compile.
+         */
+        boolean isCurrent() {
+            File classFile = entry.source.isFile() ? entry.source
+                    : new File(entry.source, className + ".class");
+            return oFile.lastModified() >= classFile.lastModified();
+        }
+    }
+
+    public RemoteCacheSync(RemoteCache remote, File cacheRoot, Log log) {
+        this(remote, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()),
+                cacheRoot, log);
+    }
+
+    /**
+     * Creates a sync which remembers the classes missing from the remote
+     * cache for the duration of the specified session.
+     */
+    public RemoteCacheSync(RemoteCache remote, MavenSession session, File cacheRoot, Log log) {
+        this(remote, getSessionMisses(session, remote), cacheRoot, log);
+    }
+
+    private RemoteCacheSync(RemoteCache remote, Set<String> misses, File cacheRoot, Log log) {
+        this.remote = remote;
+        this.misses = misses;
+        this.cacheRoot = cacheRoot;
+        this.indexDir = new File(cacheRoot, "remote-index");
+        this.log = log;
+    }
+
+    private static synchronized Set<String> getSessionMisses(MavenSession session,
+            RemoteCache remote) {
+
+        Object key = session != null ? session.getRequest() : null;
+        if (sessionKey != key) {
+            sessionKey = key;
+            sessionMisses.clear();
+        }
+        Set<String> misses = sessionMisses.get(remote.toString());
+        if (misses == null) {
+            misses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            sessionMisses.put(remote.toString(), misses);
+        }
+        return misses;
+    }
+
+    public RemoteCache getRemote() {
+        return remote;
+    }
+
+    /**
+     * Returns the {@code .class.o} files restored by {@link #pull(List)}.
+     */
+    public Set<File> getRestoredFiles() {
+        return restoredFiles;
+    }
+
+    /**
+     * Creates a {@link RemoteCache} for the specified location which is
+     * either an {@code http://} or {@code https://} URL, a {@code file:} URL
+     * or a directory.
+     */
+    public static RemoteCache createRemoteCache(String location) throws IOException {
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            return new HttpRemoteCache(location);
+        }
+        if (location.startsWith("file:")) {
+            try {
+                return new FileRemoteCache(new File(new URI(location)));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                throw new IOException("Invalid remote cache location: " + location, e);
+            }
+        }
+        return new FileRemoteCache(new File(location));
+    }
+
+    /**
+     * Fetches compiled classes which will likely be linked and are missing
+     * from the local cache of each of the specified configs. Returns the
+     * number of classes restored.
+     */
+    public int pull(List<Config> configs) throws IOException {
+        long start = System.currentTimeMillis();
+        final List<Entry> entries = new ArrayList<>();
+        List<Unit> missing = new ArrayList<>();
+        for (Config config : configs) {
+            Set<String> classes = LinkedClasses.find(config);
+            for (Unit unit : getUnits(config, entries)) {
+                if (!unit.oFile.exists() && (classes == null || classes.contains(unit.className))) {
+                    missing.add(unit);
+                }
+            }
+        }
+        final AtomicInteger restored = new AtomicInteger();
+        run(missing, new Action() {
+            public void run(Unit unit) throws IOException {
+                if (restore(unit.key, unit.oFile)) {
+                    restored.incrementAndGet();
+                    restoredFiles.add(unit.oFile);
+                    markPushed(unit);
+                }
+            }
+        });
+        storeIndexes(entries);
+        log.info("Restored " + restored + " of " + missing.size()
+                + " missing compiled classes from remote cache " + remote + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return restored.get();
+    }
+
+    /**
+     * Uploads compiled classes in the local cache of each of the specified
+     * configs which haven't been uploaded yet. Returns the number of classes
+     * uploaded.
+     */
+    public int push(List<Config> configs) throws IOException {
+        long start = System.currentTimeMillis();
+        final List<Entry> entries = new ArrayList<>();
+        List<Unit> pending = new ArrayList<>();
+        for (Config config : configs) {
+            for (Unit unit : getUnits(config, entries)) {
+                if (unit.oFile.exists() && unit.isCurrent()
+                        && !unit.key.equals(unit.entry.index.getProperty("pushed." + unit.className))) {
+                    pending.add(unit);
+                }
+            }
+        }
+        final AtomicInteger uploaded = new AtomicInteger();
+        run(pending, new Action() {
+            public void run(Unit unit) throws IOException {
+                if (upload(unit.key, unit.oFile)) {
+                    uploaded.incrementAndGet();
+                    markPushed(unit);
+                }
+            }
+        });
+        storeIndexes(entries);
+        log.info("Uploaded " + uploaded + " compiled classes to remote cache " + remote + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return uploaded.get();
+    }
+
+    private interface Action {
+        void run(Unit unit) throws IOException;
+    }
+
+    private void run(List<Unit> units, final Action action) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        int failures = 0;
+        IOException firstFailure = null;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final Unit unit : units) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        action.run(unit);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failures++;
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                    log.debug("Remote cache operation failed: " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while accessing remote cache " + remote, e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failures > 0) {
+            log.warn(failures + " remote cache operation(s) failed, the first with: " + firstFailure);
+        }
+    }
+
+    /**
+     * Restores the compiled class with the specified key as {@code oFile}
+     * and the other files the compiler produced for it next to it. Returns
+     * {@code false} if the remote cache doesn't contain the class.
+     */
+    boolean restore(String key, File oFile) throws IOException {
+        if (misses.contains(key)) {
+            return false;
+        }
+        List<String[]> files = new ArrayList<>();
+        try (InputStream in = remote.get(key + INDEX_SUFFIX)) {
+            if (in == null) {
+                misses.add(key);
+                return false;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 2 || parts[0].indexOf('/') != -1 || parts[0].indexOf('\\') != -1) {
+                    throw new IOException("Corrupt index " + key + INDEX_SUFFIX + " in remote cache");
+                }
+                files.add(parts);
+            }
+        }
+
+        File dir = oFile.getParentFile();
+        String baseName = oFile.getName().substring(0,
+                oFile.getName().length() - O_SUFFIX.length());
+        dir.mkdirs();
+        Map<File, File> downloaded = new LinkedHashMap<>();
+        try {
+            for (String[] file : files) {
+                File tmp = File.createTempFile(".remote-", null, dir);
+                downloaded.put(tmp, new File(dir, baseName + file[0]));
+                MessageDigest digest = Digests.newDigest();
+                try (InputStream in = remote.get(key + file[0])) {
+                    if (in == null) {
+                        return false;
+                    }
+                    try (OutputStream out = new FileOutputStream(tmp)) {
+                        byte[] buffer = new byte[64 * 1024];
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            digest.update(buffer, 0, n);
+                            out.write(buffer, 0, n);
+                        }
+                    }
+                }
+                if (!Digests.toHex(digest.digest()).equals(file[1])) {
+                    throw new IOException("Corrupt object " + key + file[0] + " in remote cache");
+                }
+            }
+            // The index lists the .o file last
+            for (Map.Entry<File, File> e : downloaded.entrySet()) {
+                Files.move(e.getKey().toPath(), e.getValue().toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return true;
+        } finally {
+            for (File tmp : downloaded.keySet()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Uploads {@code oFile} and the other files the compiler produced for
+     * the same class as the compiled class with the specified key. Returns
+     * {@code false} if {@code oFile} doesn't exist.
+     */
+    boolean upload(String key, final File oFile) throws IOException {
+        final String baseName = oFile.getName().substring(0,
+                oFile.getName().length() - O_SUFFIX.length());
+        File[] files = oFile.getParentFile().listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().startsWith(baseName + ".");
+            }
+        });
+        if (files == null || !oFile.exists()) {
+            return false;
+        }
+        List<File> sorted = new ArrayList<>();
+        for (File f : files) {
+            if (!f.equals(oFile)) {
+                sorted.add(f);
+            }
+        }
+        sorted.add(oFile);
+
+        StringBuilder index = new StringBuilder();
+        for (File f : sorted) {
+            String suffix = f.getName().substring(baseName.length());
+            remote.put(key + suffix, f);
+            index.append(suffix).append(' ').append(Digests.sha256(f)).append('\n');
+        }
+        File tmp = File.createTempFile("robovm-remote-", INDEX_SUFFIX);
+        try {
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                w.write(index.toString());
+            }
+            // Upload the index last so readers never see incomplete classes
+            remote.put(key + INDEX_SUFFIX, tmp);
+        } finally {
+            tmp.delete();
+        }
+        misses.remove(key);
+        return true;
+    }
+
+    private void markPushed(Unit unit) {
+        synchronized (unit.entry) {
+            unit.entry.index.setProperty("pushed." + unit.className, unit.key);
+            unit.entry.dirty = true;
+        }
+    }
+
+    private List<Unit> getUnits(Config config, List<Entry> allEntries) throws IOException {
+        File osArchCacheDir = config.getCacheDir();
+        String variant = osArchCacheDir.getAbsolutePath();
+        String root = cacheRoot.getAbsolutePath();
+        if (variant.startsWith(root + File.separator)) {
+            variant = variant.substring(root.length() + 1);
+        }
+        variant = variant.replace(File.separatorChar, '/');
+        String base = Version.getVersion() + ":" + config.getOs() + ":" + config.getArch() + ":" + variant;
+
+        List<Entry> boot = new ArrayList<>();
+        for (File f : config.getBootclasspath()) {
+            Entry e = loadEntry(osArchCacheDir, f);
+            if (e != null) {
+                boot.add(e);
+            }
+        }
+        List<Entry> jars = new ArrayList<>();
+        List<Entry> dirs = new ArrayList<>();
+        for (File f : config.getClasspath()) {
+            Entry e = loadEntry(osArchCacheDir, f);
+            if (e != null) {
+                (f.isFile() ? jars : dirs).add(e);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder("boot");
+        for (Entry e : boot) {
+            sb.append(':').append(e.contentHash);
+        }
+        String bootKey = Digests.sha256(sb.toString());
+        sb = new StringBuilder(bootKey);
+        for (Entry e : jars) {
+            sb.append(':').append(e.contentHash);
+        }
+        String jarsKey = Digests.sha256(sb.toString());
+        for (Entry e : dirs) {
+            sb.append(':').append(e.contentHash);
+        }
+        String allKey = Digests.sha256(sb.toString());
+
+        List<Unit> units = new ArrayList<>();
+        for (Entry e : boot) {
+            e.depsKey = bootKey;
+        }
+        for (Entry e : jars) {
+            e.depsKey = jarsKey;
+        }
+        for (Entry e : dirs) {
+            e.depsKey = allKey;
+        }
+        for (List<Entry> list : Arrays.asList(boot, jars, dirs)) {
+            for (Entry e : list) {
+                allEntries.add(e);
+                for (Map.Entry<String, String> c : e.classHashes.entrySet()) {
+                    String key = Digests.sha256(base + ":" + e.depsKey + ":" + c.getKey() + ":" + c.getValue());
+                    units.add(new Unit(e, c.getKey(), key));
+                }
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Returns the directory the compiler caches the compiled classes of the
+     * specified classpath entry in. This mirrors
+     * {@code Config.getCacheDir(Path)}.
+     */
+    static File getLocalDir(File osArchCacheDir, File f) {
+        if (f.getParentFile() == null) {
+            return osArchCacheDir;
+        }
+        String name = f.getName();
+        if (name.isEmpty()) {
+            // Windows drive root
+            name = f.getPath().replaceAll("[:\\\\/]", "");
+        }
+        return new File(getLocalDir(osArchCacheDir, f.getParentFile()), name);
+    }
+
+    private Entry loadEntry(File osArchCacheDir, File f) throws IOException {
+        File canonical = f.getCanonicalFile();
+        if (!canonical.exists()) {
+            return null;
+        }
+        Entry e = new Entry();
+        e.source = canonical;
+        e.localDir = getLocalDir(osArchCacheDir, canonical);
+        e.indexFile = new File(indexDir, Digests.sha256(e.localDir.getAbsolutePath()).substring(0, 16)
+                + ".properties");
+        Properties old = new Properties();
+        if (e.indexFile.exists()) {
+            try (InputStream in = new FileInputStream(e.indexFile)) {
+                old.load(in);
+            } catch (IOException ex) {
+                old.clear();
+            }
+        }
+
+        if (canonical.isFile()) {
+            String stamp = canonical.length() + ":" + canonical.lastModified();
+            if (stamp.equals(old.getProperty("stamp"))) {
+                e.index = old;
+            } else {
+                e.index = new Properties();
+                e.index.setProperty("stamp", stamp);
+                try (ZipFile zip = new ZipFile(canonical)) {
+                    Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                    while (zipEntries.hasMoreElements()) {
+                        ZipEntry ze = zipEntries.nextElement();
+                        String name = ze.getName();
+                        if (!ze.isDirectory() && name.endsWith(".class") && !name.startsWith("META-INF/")) {
+                            try (InputStream in = zip.getInputStream(ze)) {
+                                e.index.setProperty("class." + name.substring(0, name.length() - 6),
+                                        Digests.sha256(IOUtils.toByteArray(in)));
+                            }
+                        }
+                    }
+                }
+                copyPushed(old, e.index);
+                e.dirty = true;
+            }
+        } else {
+            e.index = new Properties();
+            hashDir(canonical, "", old, e.index);
+            copyPushed(old, e.index);
+            e.dirty = !e.index.equals(old);
+        }
+
+        MessageDigest digest = Digests.newDigest();
+        for (String name : e.index.stringPropertyNames()) {
+            if (name.startsWith("class.")) {
+                e.classHashes.put(name.substring(6), e.index.getProperty(name));
+            }
+        }
+        for (Map.Entry<String, String> c : e.classHashes.entrySet()) {
+            digest.update((c.getKey() + ":" + c.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        e.contentHash = Digests.toHex(digest.digest());
+        return e;
+    }
+
+    private static void hashDir(File dir, String prefix, Properties old, Properties index) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                hashDir(f, prefix + f.getName() + "/", old, index);
+            } else if (f.getName().endsWith(".class")) {
+                String className = prefix + f.getName().substring(0, f.getName().length() - 6);
+                String stamp = f.length() + ":" + f.lastModified();
+                String hash = old.getProperty("class." + className);
+                if (hash == null || !stamp.equals(old.getProperty("stamp." + className))) {
+                    hash = Digests.sha256(f);
+                }
+                index.setProperty("stamp." + className, stamp);
+                index.setProperty("class." + className, hash);
+            }
+        }
+    }
+
+    private static void copyPushed(Properties from, Properties to) {
+        for (String name : from.stringPropertyNames()) {
+            if (name.startsWith("pushed.") && to.containsKey("class." + name.substring(7))) {
+                to.setProperty(name, from.getProperty(name));
+            }
+        }
+    }
+
+    private void storeIndexes(List<Entry> entries) {
+        indexDir.mkdirs();
+        for (Entry e : entries) {
+            synchronized (e) {
+                if (!e.dirty) {
+                    continue;
+                }
+                try {
+                    File tmp = File.createTempFile(e.indexFile.getName(), ".tmp", indexDir);
+                    try (OutputStream out = new FileOutputStream(tmp)) {
+                        e.index.store(out, e.localDir.getAbsolutePath());
+                    }
+                    Files.move(tmp.toPath(), e.indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    e.dirty = false;
+                } catch (IOException ex) {
+                    log.debug("Failed to write " + e.indexFile + ": " + ex);
+                }
+            }
+        }
+    }
+}
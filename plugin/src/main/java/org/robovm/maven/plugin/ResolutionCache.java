@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Persisted record of when snapshot artifacts were last updated from the
+ * remote repositories. Used to decide whether a snapshot has to be resolved
+ * again according to an update policy, which is one of:
+ * <ul>
+ * <li>{@code always} - update on every resolution.</li>
+ * <li>{@code session} - update once per Maven session.</li>
+ * <li>{@code daily} - update once every 24 hours.</li>
+ * <li>{@code interval:N} - update once every {@code N} minutes.</li>
+ * <li>{@code never} - only resolve snapshots which have never been resolved
+ * before.</li>
+ * </ul>
+ */
+public class ResolutionCache {
+
+    public static final String ALWAYS = "always";
+    public static final String SESSION = "session";
+    public static final String DAILY = "daily";
+    public static final String NEVER = "never";
+    public static final String INTERVAL = "interval:";
+
+    private final File file;
+
+    public ResolutionCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Validates the specified update policy.
+     *
+     * @throws IllegalArgumentException if the policy is invalid.
+     */
+    public static void checkPolicy(String policy) {
+        getInterval(policy);
+    }
+
+    /**
+     * Returns the maximum age in milliseconds of an update according to the
+     * specified policy. Returns -1 for the {@code session} policy.
+     */
+    private static long getInterval(String policy) {
+        if (ALWAYS.equals(policy)) {
+            return 0;
+        } else if (NEVER.equals(policy)) {
+            return Long.MAX_VALUE;
+        } else if (DAILY.equals(policy)) {
+            return 24L * 60 * 60 * 1000;
+        } else if (SESSION.equals(policy)) {
+            return -1;
+        } else if (policy != null && policy.startsWith(INTERVAL)) {
+            try {
+                return Long.parseLong(policy.substring(INTERVAL.length()).trim()) * 60 * 1000;
+            } catch (NumberFormatException e) {
+            }
+        }
+        throw new IllegalArgumentException("Invalid update policy: " + policy);
+    }
+
+    /**
+     * Returns the file the artifact with the specified key was resolved to
+     * the last time if it doesn't need to be updated according to the
+     * specified policy. Returns {@code null} if the artifact needs to be
+     * resolved from the remote repositories.
+     *
+     * @param key the artifact id.
+     * @param policy the update policy.
+     * @param sessionId identifies the current Maven session.
+     * @param now the current time in milliseconds.
+     */
+    public File getUpToDate(String key, String policy, String sessionId, long now) {
+        long interval = getInterval(policy);
+        if (interval == 0) {
+            return null;
+        }
+        Properties props;
+        synchronized (ResolutionCache.class) {
+            props = load();
+        }
+        String path = props.getProperty(key + ".file");
+        String updated = props.getProperty(key + ".updated");
+        String session = props.getProperty(key + ".session");
+        if (path == null || updated == null || !new File(path).exists()) {
+            return null;
+        }
+        if (interval == -1) {
+            return sessionId.equals(session) ? new File(path) : null;
+        }
+        try {
+            long age = now - Long.parseLong(updated);
+            return age >= 0 && age < interval ? new File(path) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the snapshot artifact of the specified request. The remote
+     * repositories are only consulted if the artifact needs to be updated
+     * according to the specified policy. Returns {@code null} if the artifact
+     * cannot be resolved.
+     *
+     * @param resolver the resolver used to update the artifact.
+     * @param request the request for the artifact.
+     * @param policy the update policy.
+     * @param sessionId identifies the current Maven session.
+     * @param now the current time in milliseconds.
+     * @param log the log to report cache hits and failures to.
+     */
+    public Artifact resolve(ArtifactResolver resolver, ArtifactResolutionRequest request,
+            String policy, String sessionId, long now, Log log) {
+
+        Artifact artifact = request.getArtifact();
+        File file = getUpToDate(artifact.getId(), policy, sessionId, now);
+        if (file != null) {
+            log.debug("Snapshot artifact " + artifact
+                    + " is up to date according to update policy '"
+                    + policy + "': " + file);
+            artifact.setFile(file);
+            artifact.setResolved(true);
+            return artifact;
+        }
+
+        request.setForceUpdate(true);
+        ArtifactResolutionResult result = resolver.resolve(request);
+        if (!result.isSuccess()) {
+            return null;
+        }
+        Artifact resolved = result.getArtifacts().iterator().next();
+        try {
+            put(resolved.getId(), resolved.getFile(), sessionId, now);
+        } catch (IOException e) {
+            log.debug("Failed to update snapshot resolution cache: " + e);
+        }
+        return resolved;
+    }
+
+    /**
+     * Records that the artifact with the specified key has been updated from
+     * the remote repositories.
+     */
+    public void put(String key, File resolved, String sessionId, long now) throws IOException {
+        synchronized (ResolutionCache.class) {
+            Properties props = load();
+            props.setProperty(key + ".file", resolved.getAbsolutePath());
+            props.setProperty(key + ".updated", String.valueOf(now));
+            props.setProperty(key + ".session", sessionId);
+            file.getParentFile().mkdirs();
+            File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, "RoboVM snapshot resolution cache");
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private Properties load() {
+        Properties props = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            } catch (IOException e) {
+                // Treat as empty. Everything will be resolved again.
+            }
+        }
+        return props;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Records the RoboVM work of a whole Maven session as Chrome trace events
+ * which can be loaded into {@code chrome://tracing} or Perfetto. Each goal
+ * execution, each phase timed by {@link BuildMetrics} and each module (the
+ * span of all its goals) becomes a complete event on the thread which did
+ * the work, so a parallel reactor build shows where modules waited for
+ * shared resources and where threads were idle.
+ * <p>
+ * Maven doesn't tell plugins when a session ends, so the trace file is
+ * rewritten with all events recorded so far each time a goal finishes.
+ */
+public class SessionTrace {
+
+    private static SessionTrace current;
+
+    private final Object sessionKey;
+    private final File file;
+    private final long origin = System.nanoTime();
+    private final List<Event> events = new ArrayList<>();
+    private final Map<Object, Event> goals = new IdentityHashMap<>();
+    private final Map<Long, String> threadNames = new HashMap<>();
+
+    private static class Event {
+        final String name;
+        final String category;
+        final long tid;
+        final Map<String, String> args;
+        long start;
+        long duration;
+
+        Event(String name, String category, long tid, Map<String, String> args) {
+            this.name = name;
+            this.category = category;
+            this.tid = tid;
+            this.args = args;
+        }
+    }
+
+    private SessionTrace(Object sessionKey, File file) {
+        this.sessionKey = sessionKey;
+        this.file = file;
+    }
+
+    /**
+     * Returns the trace of the specified session writing to the specified
+     * file. A new trace is started when a new session starts.
+     */
+    public static synchronized SessionTrace get(MavenSession session, File file) {
+        Object key = session != null ? session.getRequest() : null;
+        if (current == null || current.sessionKey != key || !current.file.equals(file)) {
+            current = new SessionTrace(key, file);
+        }
+        return current;
+    }
+
+    private long micros(long nanos) {
+        return (nanos - origin) / 1000;
+    }
+
+    private Map<String, String> args(String module, String goal) {
+        Map<String, String> args = new LinkedHashMap<>();
+        args.put("module", module);
+        args.put("goal", goal);
+        return args;
+    }
+
+    private long currentThread() {
+        Thread t = Thread.currentThread();
+        threadNames.put(t.getId(), t.getName());
+        return t.getId();
+    }
+
+    /**
+     * Records a phase of a goal which ran on the current thread.
+     */
+    public synchronized void phase(String phase, String module, String goal, long startNanos,
+            long endNanos) {
+
+        Event e = new Event(phase, "phase", currentThread(), args(module, goal));
+        e.start = micros(startNanos);
+        e.duration = (endNanos - startNanos) / 1000;
+        events.add(e);
+    }
+
+    /**
+     * Records or extends the span of the goal identified by {@code key}
+     * which ran on the current thread.
+     */
+    public synchronized void goal(Object key, String module, String goal, long startNanos,
+            long endNanos) {
+
+        Event e = goals.get(key);
+        if (e == null) {
+            e = new Event(goal, "goal", currentThread(), args(module, goal));
+            e.start = micros(startNanos);
+            goals.put(key, e);
+            events.add(e);
+        }
+        e.duration = micros(endNanos) - e.start;
+    }
+
+    /**
+     * Writes all events recorded so far to the trace file.
+     */
+    public synchronized void write() throws IOException {
+        // Module spans cover all goals of the module on the same thread
+        Map<String, Event> modules = new LinkedHashMap<>();
+        for (Event goal : goals.values()) {
+            String key = goal.args.get("module") + "@" + goal.tid;
+            Event module = modules.get(key);
+            if (module == null) {
+                Map<String, String> args = new LinkedHashMap<>();
+                args.put("module", goal.args.get("module"));
+                module = new Event(goal.args.get("module"), "module", goal.tid, args);
+                module.start = goal.start;
+                module.duration = goal.duration;
+                modules.put(key, module);
+            } else {
+                long end = Math.max(module.start + module.duration, goal.start + goal.duration);
+                module.start = Math.min(module.start, goal.start);
+                module.duration = end - module.start;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"displayTimeUnit\": \"ms\", \"traceEvents\": [\n");
+        String sep = "";
+        for (Map.Entry<Long, String> t : threadNames.entrySet()) {
+            sb.append(sep).append("{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": ")
+                    .append(t.getKey()).append(", \"args\": {\"name\": ")
+                    .append(Json.quote(t.getValue())).append("}}");
+            sep = ",\n";
+        }
+        List<Event> all = new ArrayList<>(modules.values());
+        all.addAll(events);
+        for (Event e : all) {
+            sb.append(sep).append("{\"name\": ").append(Json.quote(e.name))
+                    .append(", \"cat\": ").append(Json.quote(e.category))
+                    .append(", \"ph\": \"X\", \"pid\": 1, \"tid\": ").append(e.tid)
+                    .append(", \"ts\": ").append(e.start)
+                    .append(", \"dur\": ").append(Math.max(0, e.duration))
+                    .append(", \"args\": {");
+            String argSep = "";
+            for (Map.Entry<String, String> arg : e.args.entrySet()) {
+                sb.append(argSep).append(Json.quote(arg.getKey())).append(": ")
+                        .append(Json.quote(arg.getValue()));
+                argSep = ", ";
+            }
+            sb.append("}}");
+            sep = ",\n";
+        }
+        sb.append("\n]}\n");
+        BuildMetrics.write(file, sb.toString());
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Attributes the size of the object files linked into an app to the
+ * packages and classpath entries (Maven dependencies) which supplied the
+ * compiled classes. Written as JSON and HTML by {@link SizeReportMojo}.
+ */
+public class SizeReport {
+
+    private final Map<String, Row> byOrigin = new HashMap<>();
+    private final Map<String, Row> byPackage = new HashMap<>();
+    private final List<Row> classes = new ArrayList<>();
+    private final Row total = new Row("total");
+    private final boolean exact;
+
+    /**
+     * Size, class count and method count of a class or a group of classes.
+     */
+    public static class Row {
+        public final String name;
+        public long size;
+        public int classes;
+        public int methods;
+
+        Row(String name) {
+            this.name = name;
+        }
+
+        void add(long size, int methods) {
+            this.size += size;
+            this.classes++;
+            this.methods += methods;
+        }
+    }
+
+    /**
+     * @param exact {@code true} if the linked object files are known,
+     *            {@code false} if all compiled classes in the cache were
+     *            counted.
+     */
+    public SizeReport(boolean exact) {
+        this.exact = exact;
+    }
+
+    /**
+     * Adds a linked class.
+     *
+     * @param origin the classpath entry or dependency the class came from.
+     * @param className the internal name of the class.
+     * @param size the size of the class' object file.
+     * @param methods the number of methods in the class or -1 if unknown.
+     */
+    public void add(String origin, String className, long size, int methods) {
+        int m = Math.max(0, methods);
+        int slash = className.lastIndexOf('/');
+        String pkg = slash != -1 ? className.substring(0, slash).replace('/', '.') : "(default package)";
+        row(byOrigin, origin).add(size, m);
+        row(byPackage, pkg).add(size, m);
+        Row row = new Row(className.replace('/', '.'));
+        row.add(size, m);
+        classes.add(row);
+        total.add(size, m);
+    }
+
+    private static Row row(Map<String, Row> rows, String name) {
+        Row row = rows.get(name);
+        if (row == null) {
+            row = new Row(name);
+            rows.put(name, row);
+        }
+        return row;
+    }
+
+    public Row getTotal() {
+        return total;
+    }
+
+    public List<Row> getOrigins() {
+        return sorted(byOrigin.values(), Integer.MAX_VALUE);
+    }
+
+    private static List<Row> sorted(Collection<Row> rows, int max) {
+        List<Row> list = new ArrayList<>(rows);
+        Collections.sort(list, new Comparator<Row>() {
+            public int compare(Row o1, Row o2) {
+                return Long.compare(o2.size, o1.size);
+            }
+        });
+        return list.subList(0, Math.min(max, list.size()));
+    }
+
+    public String toJson(String module, int topClasses) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"module\": ").append(Json.quote(module)).append(",\n");
+        sb.append("  \"exact\": ").append(exact).append(",\n");
+        sb.append("  \"total\": ").append(toJson(total)).append(",\n");
+        appendJson(sb, "dependencies", sorted(byOrigin.values(), Integer.MAX_VALUE));
+        sb.append(",\n");
+        appendJson(sb, "packages", sorted(byPackage.values(), Integer.MAX_VALUE));
+        sb.append(",\n");
+        appendJson(sb, "classes", sorted(classes, topClasses));
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+
+    private static void appendJson(StringBuilder sb, String name, List<Row> rows) {
+        sb.append("  ").append(Json.quote(name)).append(": [");
+        String sep = "\n";
+        for (Row row : rows) {
+            sb.append(sep).append("    ").append(toJson(row));
+            sep = ",\n";
+        }
+        sb.append("\n  ]");
+    }
+
+    private static String toJson(Row row) {
+        return "{\"name\": " + Json.quote(row.name) + ", \"size\": " + row.size
+                + ", \"classes\": " + row.classes + ", \"methods\": " + row.methods + "}";
+    }
+
+    public String toHtml(String module, int topClasses) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\">\n");
+        sb.append("<title>RoboVM size report: ").append(escape(module)).append("</title>\n");
+        sb.append("<style>body{font-family:sans-serif}table{border-collapse:collapse;margin-bottom:2em}")
+                .append("td,th{padding:2px 8px;text-align:right}td:first-child,th:first-child{text-align:left}")
+                .append(".bar{background:#4a90d9;height:10px}</style>\n");
+        sb.append("</head><body>\n");
+        sb.append("<h1>RoboVM size report: ").append(escape(module)).append("</h1>\n");
+        sb.append("<p>").append(total.classes).append(" classes, ").append(total.methods)
+                .append(" methods, ").append(escape(CacheGc.formatSize(total.size)))
+                .append(" of object code").append(exact ? " linked" : " compiled (linked objects unknown)")
+                .append(".</p>\n");
+        appendHtml(sb, "By dependency", sorted(byOrigin.values(), Integer.MAX_VALUE));
+        appendHtml(sb, "By package", sorted(byPackage.values(), Integer.MAX_VALUE));
+        appendHtml(sb, "Largest classes", sorted(classes, topClasses));
+        sb.append("</body></html>\n");
+        return sb.toString();
+    }
+
+    private void appendHtml(StringBuilder sb, String title, List<Row> rows) {
+        sb.append("<h2>").append(escape(title)).append("</h2>\n<table>\n");
+        sb.append("<tr><th>Name</th><th>Size</th><th>%</th><th>Classes</th><th>Methods</th><th></th></tr>\n");
+        for (Row row : rows) {
+            double percent = total.size > 0 ? row.size * 100.0 / total.size : 0;
+            sb.append("<tr><td>").append(escape(row.name)).append("</td><td>")
+                    .append(escape(CacheGc.formatSize(row.size))).append("</td><td>")
+                    .append(String.format(Locale.ENGLISH, "%.1f", percent)).append("</td><td>")
+                    .append(row.classes).append("</td><td>").append(row.methods)
+                    .append("</td><td style=\"width:200px\"><div class=\"bar\" style=\"width:")
+                    .append(String.format(Locale.ENGLISH, "%.1f", percent)).append("%\"></div></td></tr>\n");
+        }
+        sb.append("</table>\n");
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Writes the report as {@code robovm-size-report.json} and
+     * {@code robovm-size-report.html} to the specified directory.
+     */
+    public void write(File dir, String module, int topClasses) throws IOException {
+        BuildMetrics.write(new File(dir, "robovm-size-report.json"), toJson(module, topClasses));
+        BuildMetrics.write(new File(dir, "robovm-size-report.html"), toHtml(module, topClasses));
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.robovm.compiler.config.Arch;
+import org.robovm.compiler.config.Config;
+import org.robovm.maven.common.ClassInfo;
+
+/**
+ * Reports how much of the native code linked into the app comes from each
+ * package and each dependency of the project. Uses the object files listed
+ * by the linker during the last build of the app for the specified os and
+ * arch. If they aren't available all classes of the classpath found in the
+ * compiled class cache are counted instead. The report is written to
+ * {@code target/robovm-size-report.json} and
+ * {@code target/robovm-size-report.html}.
+ */
+@Mojo(name = "size-report", defaultPhase = LifecyclePhase.VERIFY,
+        requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
+public class SizeReportMojo extends AbstractRoboVMMojo {
+
+    /**
+     * The number of largest classes to include in the report.
+     */
+    @Parameter(property="robovm.sizeReportTopClasses", defaultValue="50")
+    protected int sizeReportTopClasses = 50;
+
+    /**
+     * A classpath entry together with the dependency it belongs to and the
+     * directory of its compiled classes in the cache.
+     */
+    private static class Origin {
+        final String name;
+        final File source;
+        final File localDir;
+
+        Origin(String name, File source, File localDir) {
+            this.name = name;
+            this.source = source;
+            this.localDir = localDir;
+        }
+    }
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            Config.Builder builder = configure(new Config.Builder());
+            if (arch != null) {
+                builder.arch(Arch.valueOf(arch));
+            }
+            Config config = builder.build();
+
+            Map<File, Origin> origins = getOrigins(config);
+            List<File> objects = readLinkedObjects(config);
+            SizeReport report = new SizeReport(objects != null);
+            if (objects == null) {
+                getLog().warn("No objects file found in " + getTmpDir() + " for "
+                        + config.getOs() + " (" + config.getArch() + "), reporting all "
+                        + "compiled classes in the cache. Build the app first for an exact report.");
+                objects = findCompiledObjects(origins.values());
+            }
+
+            Map<File, ZipFile> jars = new HashMap<>();
+            try {
+                for (File o : objects) {
+                    Origin origin = null;
+                    for (File dir = o.getParentFile(); dir != null && origin == null; dir = dir.getParentFile()) {
+                        origin = origins.get(dir);
+                    }
+                    if (origin == null || !o.getName().endsWith(".class.o")) {
+                        // Objects generated by the linker itself
+                        report.add("(other)", o.getName(), o.length(), -1);
+                        continue;
+                    }
+                    String path = o.getAbsolutePath().substring(origin.localDir.getAbsolutePath().length() + 1);
+                    String className = path.substring(0, path.length() - ".class.o".length())
+                            .replace(File.separatorChar, '/');
+                    report.add(origin.name, className, o.length(), countMethods(origin.source, className, jars));
+                }
+            } finally {
+                for (ZipFile zf : jars.values()) {
+                    zf.close();
+                }
+            }
+
+            File dir = new File(project.getBuild().getDirectory());
+            report.write(dir, project.getGroupId() + ":" + project.getArtifactId(), sizeReportTopClasses);
+            SizeReport.Row total = report.getTotal();
+            getLog().info("RoboVM size report: " + total.classes + " classes, " + total.methods
+                    + " methods, " + CacheGc.formatSize(total.size) + " of object code");
+            int count = 0;
+            for (SizeReport.Row row : report.getOrigins()) {
+                if (count++ == 10) {
+                    break;
+                }
+                getLog().info(String.format("  %10s %6d classes  %s",
+                        CacheGc.formatSize(row.size), row.classes, row.name));
+            }
+            getLog().info("Full report written to " + new File(dir, "robovm-size-report.html"));
+
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to create RoboVM size report", e);
+        } finally {
+            releaseDistLock();
+        }
+    }
+
+    /**
+     * Maps the cache directory of each classpath entry to the dependency the
+     * entry belongs to.
+     */
+    private Map<File, Origin> getOrigins(Config config) throws IOException {
+        Map<String, String> artifacts = new HashMap<>();
+        for (Artifact artifact : project.getArtifacts()) {
+            if (artifact.getFile() != null) {
+                artifacts.put(artifact.getFile().getCanonicalPath(), artifact.getId());
+            }
+        }
+        String outputDirectory = new File(project.getBuild().getOutputDirectory()).getCanonicalPath();
+
+        File osArchCacheDir = config.getCacheDir();
+        Map<File, Origin> origins = new HashMap<>();
+        for (File f : config.getBootclasspath()) {
+            File canonical = f.getCanonicalFile();
+            File localDir = RemoteCacheSync.getLocalDir(osArchCacheDir, canonical).getAbsoluteFile();
+            origins.put(localDir, new Origin("RoboVM runtime (" + canonical.getName() + ")",
+                    canonical, localDir));
+        }
+        for (File f : config.getClasspath()) {
+            File canonical = f.getCanonicalFile();
+            String name = artifacts.get(canonical.getPath());
+            if (name == null) {
+                name = canonical.getPath().equals(outputDirectory)
+                        ? project.getId() : canonical.getName();
+            }
+            File localDir = RemoteCacheSync.getLocalDir(osArchCacheDir, canonical).getAbsoluteFile();
+            origins.put(localDir, new Origin(name, canonical, localDir));
+        }
+        return origins;
+    }
+
+    /**
+     * Reads the object files passed to the linker by the last build. Returns
+     * {@code null} if there has been no build for the configured os and
+     * arch.
+     */
+    private List<File> readLinkedObjects(Config config) throws IOException {
+        List<File> candidates = new ArrayList<>();
+        findObjectsFiles(getTmpDir(), candidates, 0);
+        File objectsFile = null;
+        for (File f : candidates) {
+            String path = f.getAbsolutePath();
+            if (path.contains(File.separator + config.getArch() + File.separator)
+                    || objectsFile == null && candidates.size() == 1) {
+                objectsFile = f;
+            }
+        }
+        if (objectsFile == null) {
+            return null;
+        }
+        getLog().debug("Reading linked objects from " + objectsFile);
+        List<File> objects = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(objectsFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("\"") && line.endsWith("\"") && line.length() > 1) {
+                    line = line.substring(1, line.length() - 1);
+                }
+                if (!line.isEmpty()) {
+                    objects.add(new File(line).getAbsoluteFile());
+                }
+            }
+        }
+        return objects;
+    }
+
+    private static void findObjectsFiles(File dir, List<File> result, int depth) {
+        File[] files = dir.listFiles();
+        if (files == null || depth > 4) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                findObjectsFiles(f, result, depth + 1);
+            } else if (f.getName().equals("objects")) {
+                result.add(f);
+            }
+        }
+    }
+
+    private static List<File> findCompiledObjects(Iterable<Origin> origins) throws IOException {
+        final List<File> objects = new ArrayList<>();
+        for (Origin origin : origins) {
+            if (origin.localDir.isDirectory()) {
+                Files.walkFileTree(origin.localDir.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (file.getFileName().toString().endsWith(".class.o")) {
+                            objects.add(file.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        }
+        return objects;
+    }
+
+    private int countMethods(File source, String className, Map<File, ZipFile> jars) {
+        try {
+            byte[] bytes = null;
+            if (source.isDirectory()) {
+                File f = new File(source, className + ".class");
+                if (f.exists()) {
+                    bytes = Files.readAllBytes(f.toPath());
+                }
+            } else {
+                ZipFile zf = jars.get(source);
+                if (zf == null) {
+                    zf = new ZipFile(source);
+                    jars.put(source, zf);
+                }
+                ZipEntry entry = zf.getEntry(className + ".class");
+                if (entry != null) {
+                    try (InputStream in = zf.getInputStream(entry)) {
+                        bytes = IOUtils.toByteArray(in);
+                    }
+                }
+            }
+            return bytes != null ? ClassInfo.parse(bytes).getMethodCount() : -1;
+        } catch (IOException | IllegalArgumentException e) {
+            getLog().debug("Failed to read class " + className + " from " + source + ": " + e);
+            return -1;
+        }
+    }
+}
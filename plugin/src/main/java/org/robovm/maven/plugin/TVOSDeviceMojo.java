@@ -43,7 +43,7 @@ public class TVOSDeviceMojo extends AbstractRoboVMMojo {
             Config config = compiler.getConfig();
             LaunchParameters launchParameters = config.getTarget()
                     .createLaunchParameters();
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
 
         } catch (Throwable t) {
             throw new MojoExecutionException("Failed to launch tvOS device", t);
@@ -62,7 +62,7 @@ public class TVOSSimulatorMojo extends AbstractRoboVMMojo {
             DeviceType deviceType = DeviceType.getBestDeviceType(
                     Arch.x86_64, OS.tvos, DeviceFamily.AppleTV, deviceName, sdk);
             launchParameters.setDeviceType(deviceType);
-            compiler.launch(launchParameters);
+            launch(compiler, launchParameters);
 
         } catch (Throwable t) {
             throw new MojoExecutionException("Failed to launch tvOS simulator", t);
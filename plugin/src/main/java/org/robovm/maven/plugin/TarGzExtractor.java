@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Extracts {@code .tar.gz} archives by decompressing the archive once on the
+ * calling thread and handing the file writes off to a bounded pool of worker
+ * threads. Small entries are read into memory and written by the workers
+ * while the next entries are being decompressed. Entries larger than
+ * {@link #MAX_BUFFERED_ENTRY} are streamed straight to disk on the calling
+ * thread. File permissions, modification times, symbolic links and hard
+ * links are preserved.
+ */
+public class TarGzExtractor {
+
+    private static final int MAX_BUFFERED_ENTRY = 8 * 1024 * 1024;
+    private static final int MAX_BUFFERED_TOTAL = 64 * 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+
+    private final int threads;
+    private volatile DistStore store;
+
+    public TarGzExtractor() {
+        this(Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public TarGzExtractor(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets a {@link DistStore} which extracted files will be hard linked
+     * from. Files already in the store are not written again. The store must
+     * be locked while extracting.
+     */
+    public void setStore(DistStore store) {
+        this.store = store;
+    }
+
+    public void extract(File archive, File destDir) throws IOException {
+        final Path dest = destDir.getAbsoluteFile().toPath().normalize();
+        final boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        final Semaphore buffered = new Semaphore(MAX_BUFFERED_TOTAL);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "robovm-unpack");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        Map<Path, TarArchiveEntry> directories = new LinkedHashMap<>();
+        Map<Path, Path> hardLinks = new LinkedHashMap<>();
+        Map<Path, Path> symLinks = new LinkedHashMap<>();
+
+        try (TarArchiveInputStream in = new TarArchiveInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(archive), STREAM_BUFFER_SIZE),
+                STREAM_BUFFER_SIZE))) {
+
+            byte[] streamBuffer = new byte[STREAM_BUFFER_SIZE];
+            TarArchiveEntry entry;
+            while ((entry = in.getNextTarEntry()) != null) {
+                final Path path = resolve(dest, entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(path);
+                    directories.put(path, entry);
+                } else if (entry.isSymbolicLink()) {
+                    // Created last so that no entry can be written through one
+                    symLinks.put(path, checkSymbolicLink(dest, path, entry.getLinkName()));
+                } else if (entry.isLink()) {
+                    // The link target may still be in flight. Create hard links last.
+                    hardLinks.put(path, resolve(dest, entry.getLinkName()));
+                } else if (entry.isFile()) {
+                    Files.createDirectories(path.getParent());
+                    final TarArchiveEntry fileEntry = entry;
+                    if (entry.getSize() > MAX_BUFFERED_ENTRY) {
+                        if (store != null) {
+                            store.materialize(path, in, entry.getMode(),
+                                    entry.getModTime().getTime());
+                        } else {
+                            try (OutputStream out = Files.newOutputStream(path)) {
+                                int n;
+                                while ((n = in.read(streamBuffer)) != -1) {
+                                    out.write(streamBuffer, 0, n);
+                                }
+                            }
+                            setAttributes(path, fileEntry, posix);
+                        }
+                    } else {
+                        final int size = (int) entry.getSize();
+                        // Wait for the workers to catch up before the entry
+                        // is allocated, not just before it is handed over
+                        buffered.acquireUninterruptibly(Math.max(1, size));
+                        final byte[] data = new byte[size];
+                        readFully(in, data);
+                        futures.add(executor.submit(new Runnable() {
+                            public void run() {
+                                try {
+                                    if (store != null) {
+                                        // Attributes are owned by the store
+                                        store.materialize(path, data, fileEntry.getMode(),
+                                                fileEntry.getModTime().getTime());
+                                    } else {
+                                        write(path, data);
+                                        setAttributes(path, fileEntry, posix);
+                                    }
+                                } catch (IOException e) {
+                                    throw new RuntimeException(e);
+                                } finally {
+                                    buffered.release(Math.max(1, size));
+                                }
+                            }
+                        }));
+                    }
+                }
+            }
+
+            executor.shutdown();
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException && cause.getCause() instanceof IOException) {
+                        throw (IOException) cause.getCause();
+                    }
+                    throw new IOException("Failed to extract " + archive, cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while extracting " + archive, e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Map.Entry<Path, Path> link : hardLinks.entrySet()) {
+            Files.createDirectories(link.getKey().getParent());
+            Files.deleteIfExists(link.getKey());
+            Files.createLink(link.getKey(), link.getValue());
+        }
+        for (Map.Entry<Path, Path> link : symLinks.entrySet()) {
+            Path path = link.getKey();
+            checkNoSymbolicLinks(dest, path.getParent());
+            Files.createDirectories(path.getParent());
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                throw new IOException("Archive entry " + dest.relativize(path)
+                        + " replaces a directory with a symbolic link");
+            }
+            Files.deleteIfExists(path);
+            Files.createSymbolicLink(path, link.getValue());
+            // The target has been checked lexically. Links to links may
+            // still end up outside of dest.
+            if (Files.exists(path) && !path.toRealPath().startsWith(dest.toRealPath())) {
+                Files.delete(path);
+                throw new IOException("Symbolic link " + dest.relativize(path) + " -> "
+                        + link.getValue() + " points outside of " + dest);
+            }
+        }
+        // Set directory attributes last since writing files into them
+        // updates their modification times.
+        for (Map.Entry<Path, TarArchiveEntry> dir : directories.entrySet()) {
+            if (!Files.isSymbolicLink(dir.getKey())) {
+                setAttributes(dir.getKey(), dir.getValue(), posix);
+            }
+        }
+    }
+
+    private static Path resolve(Path dest, String name) throws IOException {
+        Path path = dest.resolve(name).normalize();
+        if (!path.startsWith(dest)) {
+            throw new IOException("Archive entry " + name + " is outside of " + dest);
+        }
+        checkNoSymbolicLinks(dest, path);
+        return path;
+    }
+
+    /**
+     * Checks that neither {@code path} nor any of its parents below
+     * {@code dest} is a symbolic link, i.e. that nothing will be written
+     * through a link which already exists in {@code dest}.
+     */
+    private static void checkNoSymbolicLinks(Path dest, Path path) throws IOException {
+        for (Path p = path; p != null && p.startsWith(dest) && !p.equals(dest); p = p.getParent()) {
+            if (Files.isSymbolicLink(p)) {
+                throw new IOException("Archive entry " + dest.relativize(path)
+                        + " would be written through the symbolic link " + p);
+            }
+        }
+    }
+
+    /**
+     * Returns the target of a symbolic link entry after checking that it is
+     * relative and doesn't point outside of {@code dest}.
+     */
+    private static Path checkSymbolicLink(Path dest, Path path, String linkName)
+            throws IOException {
+
+        Path target = Paths.get(linkName);
+        if (target.isAbsolute() || linkName.startsWith("/")
+                || !path.getParent().resolve(target).normalize().startsWith(dest)) {
+            throw new IOException("Symbolic link " + dest.relativize(path) + " -> "
+                    + linkName + " points outside of " + dest);
+        }
+        return target;
+    }
+
+    private static void readFully(InputStream in, byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int n = in.read(data, offset, data.length - offset);
+            if (n == -1) {
+                throw new IOException("Unexpected end of archive");
+            }
+            offset += n;
+        }
+    }
+
+    private static void write(Path path, byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static void setAttributes(Path path, TarArchiveEntry entry, boolean posix)
+            throws IOException {
+
+        setAttributes(path, entry.getMode(), entry.getModTime().getTime(), posix);
+    }
+
+    static void setAttributes(Path path, int mode, long lastModified, boolean posix)
+            throws IOException {
+
+        if (posix) {
+            Files.setPosixFilePermissions(path, toPermissions(mode));
+        } else if ((mode & 0100) != 0) {
+            path.toFile().setExecutable(true);
+        }
+        path.toFile().setLastModified(lastModified);
+    }
+
+    private static Set<PosixFilePermission> toPermissions(int mode) {
+        Set<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] values = {
+            PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE,
+            PosixFilePermission.OTHERS_READ, PosixFilePermission.GROUP_EXECUTE,
+            PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE,
+            PosixFilePermission.OWNER_READ
+        };
+        for (int i = 0; i < values.length; i++) {
+            if ((mode & (1 << i)) != 0) {
+                perms.add(values[i]);
+            }
+        }
+        // Never lock ourselves out of files we have extracted
+        perms.add(PosixFilePermission.OWNER_READ);
+        perms.add(PosixFilePermission.OWNER_WRITE);
+        return perms;
+    }
+}
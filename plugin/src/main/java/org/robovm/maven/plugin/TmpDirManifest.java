@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Keeps track of the files the RoboVM compiler produced in its temporary
+ * directory and for which config they were produced. This lets a build reuse
+ * the temporary directory of the previous build instead of wiping it. Only
+ * when the config key changes is the whole directory considered stale.
+ * Otherwise only files which weren't produced by the last successful build
+ * (e.g. left behind by an interrupted build) are removed.
+ */
+public class TmpDirManifest {
+
+    static final String FILE_NAME = ".robovm-manifest";
+
+    private static final String KEY = "key";
+    private static final String FILE_PREFIX = "file:";
+
+    private TmpDirManifest() {
+    }
+
+    /**
+     * Prepares {@code dir} for a build with the specified config key. The
+     * manifest is left in place: files the build rewrites get new stamps, so
+     * should the build be interrupted they are removed as stale next time.
+     * Once the build succeeds the manifest is {@link #record(File, String)
+     * recorded} again.
+     *
+     * @return the number of stale files removed or -1 if the whole directory
+     *         was wiped.
+     */
+    public static int prepare(File dir, String key) throws IOException {
+        File manifestFile = new File(dir, FILE_NAME);
+        Properties manifest = load(manifestFile);
+        if (manifest == null || !key.equals(manifest.getProperty(KEY))) {
+            FileUtils.deleteDirectory(dir);
+            dir.mkdirs();
+            return -1;
+        }
+        return removeStale(dir, "", manifest);
+    }
+
+    /**
+     * Returns {@code true} if the last build recorded in {@code dir} was for
+     * the specified config key.
+     */
+    public static boolean isRecorded(File dir, String key) {
+        Properties manifest = load(new File(dir, FILE_NAME));
+        return manifest != null && key.equals(manifest.getProperty(KEY));
+    }
+
+    private static int removeStale(File dir, String prefix, Properties manifest)
+            throws IOException {
+
+        int count = 0;
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                String path = prefix + child.getName();
+                if (child.isDirectory()) {
+                    count += removeStale(child, path + "/", manifest);
+                } else if (path.equals(FILE_NAME)) {
+                    continue;
+                } else if (!stamp(child).equals(manifest.getProperty(FILE_PREFIX + path))) {
+                    if (!child.delete()) {
+                        throw new IOException("Failed to delete stale file " + child);
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Records the current contents of {@code dir} as produced by a
+     * successful build with the specified config key. The manifest is
+     * replaced atomically so that a concurrent or interrupted build never
+     * sees a partially written one.
+     */
+    public static void record(File dir, String key) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty(KEY, key);
+        collect(dir, "", manifest);
+        manifest.remove(FILE_PREFIX + FILE_NAME);
+        File tmp = File.createTempFile(FILE_NAME, ".tmp", dir);
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                manifest.store(out, "RoboVM temporary directory manifest");
+            }
+            Files.move(tmp.toPath(), new File(dir, FILE_NAME).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static void collect(File dir, String prefix, Properties manifest) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                String path = prefix + child.getName();
+                if (child.isDirectory()) {
+                    collect(child, path + "/", manifest);
+                } else {
+                    manifest.setProperty(FILE_PREFIX + path, stamp(child));
+                }
+            }
+        }
+    }
+
+    private static String stamp(File f) {
+        return f.length() + ":" + f.lastModified();
+    }
+
+    private static Properties load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        return props;
+    }
+}
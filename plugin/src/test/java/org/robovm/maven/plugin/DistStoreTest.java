@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.robovm.maven.plugin.TarGzExtractorTest.TarGzBuilder;
+
+/**
+ * Tests {@link DistStore}.
+ */
+public class DistStoreTest {
+
+    private static final long T1 = 1400000000000L;
+    private static final long T2 = 1450000000000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File extract(DistStore store, File archive) throws Exception {
+        File dest = tmp.newFolder();
+        TarGzExtractor extractor = new TarGzExtractor(2);
+        extractor.setStore(store);
+        extractor.extract(archive, dest);
+        return dest;
+    }
+
+    @Test
+    public void testLinkedFilesKeepTheirAttributes() throws Exception {
+        DistStore store = new DistStore(tmp.newFolder("store"), new SystemStreamLog());
+        byte[] data = "same".getBytes(StandardCharsets.UTF_8);
+        File v1 = extract(store, new TarGzBuilder(tmp.newFile("v1.tar.gz"))
+                .file("robovm/a", data, 0644, T1)
+                .file("robovm/b", data, 0644, T1)
+                .close());
+        File v2 = extract(store, new TarGzBuilder(tmp.newFile("v2.tar.gz"))
+                .file("robovm/a", data, 0644, T2)
+                .file("robovm/b", data, 0755, T2)
+                .close());
+
+        File a1 = new File(v1, "robovm/a");
+        File a2 = new File(v2, "robovm/a");
+        File b2 = new File(v2, "robovm/b");
+        assertTrue(Files.isSameFile(a1.toPath(), a2.toPath()));
+        // The second extraction must not have touched the shared inode
+        assertEquals(T1, a1.lastModified());
+        assertFalse(a1.canExecute());
+        assertFalse(new File(v1, "robovm/b").canExecute());
+        // Different permissions result in a separate object
+        assertFalse(Files.isSameFile(a2.toPath(), b2.toPath()));
+        assertTrue(b2.canExecute());
+        assertEquals(T2, b2.lastModified());
+    }
+
+    @Test
+    public void testDeduplicate() throws Exception {
+        DistStore store = new DistStore(tmp.newFolder("store"), new SystemStreamLog());
+        File v1 = extract(store, new TarGzBuilder(tmp.newFile("v1.tar.gz"))
+                .file("robovm/a", "same".getBytes(StandardCharsets.UTF_8), 0644, T1)
+                .close());
+        File v2 = tmp.newFolder("v2");
+        File a2 = new File(v2, "a");
+        Files.write(a2.toPath(), "same".getBytes(StandardCharsets.UTF_8));
+        a2.setLastModified(T2);
+        store.deduplicate(v2);
+
+        assertTrue(Files.isSameFile(new File(v1, "robovm/a").toPath(), a2.toPath()));
+        assertEquals(T1, new File(v1, "robovm/a").lastModified());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link Json}.
+ */
+public class JsonTest {
+
+    @Test
+    public void testParse() throws Exception {
+        Map<?, ?> map = (Map<?, ?>) Json.parse("{\n  \"module\": \"a:b\",\n"
+                + "  \"phases\": {\"compile\": 1200, \"link\": 30},\n"
+                + "  \"ratio\": -1.5e2, \"linked\": null, \"ok\": true,\n"
+                + "  \"slowestClasses\": [{\"class\": \"x\\\"y\\u0041\", \"ms\": 7}, []]\n}\n");
+        assertEquals("a:b", map.get("module"));
+        Map<?, ?> phases = (Map<?, ?>) map.get("phases");
+        assertEquals(1200L, phases.get("compile"));
+        assertEquals(30L, phases.get("link"));
+        assertEquals(-150.0, map.get("ratio"));
+        assertTrue(map.containsKey("linked"));
+        assertNull(map.get("linked"));
+        assertEquals(Boolean.TRUE, map.get("ok"));
+        Map<?, ?> slowest = (Map<?, ?>) ((List<?>) map.get("slowestClasses")).get(0);
+        assertEquals("x\"yA", slowest.get("class"));
+        assertEquals(Arrays.asList(), ((List<?>) map.get("slowestClasses")).get(1));
+    }
+
+    @Test
+    public void testQuoteRoundTrip() throws Exception {
+        String s = "tab\t newline\n quote\" backslash\\ \u0001";
+        assertEquals(s, Json.parse(Json.quote(s)));
+    }
+
+    @Test
+    public void testInvalid() {
+        for (String json : new String[] {"", "{", "{\"a\" 1}", "[1,]", "\"abc", "{} x", "01x", "tru"}) {
+            try {
+                Json.parse(json);
+                fail("Parsed invalid JSON: " + json);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+}
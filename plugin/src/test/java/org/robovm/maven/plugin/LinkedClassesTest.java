@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LinkedClasses}.
+ */
+public class LinkedClassesTest {
+
+    private static File getClassesDir() throws Exception {
+        return new File(LinkedClassesTest.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+    }
+
+    private static String name(Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+
+    @Test
+    public void testReachableFromMainClass() throws Exception {
+        Set<String> linked = LinkedClasses.find(Arrays.asList(getClassesDir()),
+                LinkedMain.class.getName(), Collections.<String>emptyList());
+        assertTrue(linked.contains(name(LinkedMain.class)));
+        assertTrue(linked.contains(name(LinkedUsed.class)));
+        assertFalse(linked.contains(name(LinkedUnused.class)));
+        assertFalse(linked.contains(name(LinkedForced.class)));
+        // Not on the classpath
+        assertFalse(linked.contains("java/lang/Runnable"));
+    }
+
+    @Test
+    public void testForceLinkClasses() throws Exception {
+        Set<String> linked = LinkedClasses.find(Arrays.asList(getClassesDir()),
+                LinkedMain.class.getName(), Arrays.asList("org.robovm.maven.*.LinkedForc*"));
+        assertTrue(linked.contains(name(LinkedForced.class)));
+        assertFalse(linked.contains(name(LinkedUnused.class)));
+    }
+
+    @Test
+    public void testPatterns() {
+        assertTrue(LinkedClasses.toPattern("com.example.**").matcher("com.example.a.B").matches());
+        assertTrue(LinkedClasses.toPattern("com.example.*").matcher("com.example.B").matches());
+        assertFalse(LinkedClasses.toPattern("com.example.*").matcher("com.example.a.B").matches());
+        assertFalse(LinkedClasses.toPattern("com.example.*").matcher("comXexample.B").matches());
+    }
+}
+
+// Top level classes, since nested classes refer to their outer class
+
+class LinkedMain {
+    public static void main(String[] args) {
+        new LinkedUsed().run();
+    }
+}
+
+class LinkedUsed implements Runnable {
+    public void run() {
+    }
+}
+
+class LinkedUnused {
+}
+
+class LinkedForced {
+}
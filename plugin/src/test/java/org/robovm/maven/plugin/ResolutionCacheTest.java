@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link ResolutionCache} against a local repository stand-in which
+ * snapshot artifacts are "resolved" into, and against a {@code file://}
+ * remote repository which a stand-in resolver downloads snapshots from.
+ */
+public class ResolutionCacheTest {
+
+    private static final String KEY = "org.robovm:robovm-dist:tar.gz:nocompiler:1.14.1-SNAPSHOT";
+    private static final long HOUR = 60L * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File repo;
+    private ResolutionCache cache;
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = tmp.newFolder("repo");
+        cache = new ResolutionCache(new File(repo, ".robovm-resolution.properties"));
+        now = System.currentTimeMillis();
+    }
+
+    private File resolve(String sessionId, long time) throws IOException {
+        File file = new File(repo, "org/robovm/robovm-dist/1.14.1-SNAPSHOT/"
+                + "robovm-dist-1.14.1-SNAPSHOT-nocompiler.tar.gz");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), new byte[] {1, 2, 3});
+        cache.put(KEY, file, sessionId, time);
+        return file;
+    }
+
+    @Test
+    public void testHitInSameSession() throws Exception {
+        File file = resolve("s1", now);
+        assertEquals(file.getAbsoluteFile(),
+                cache.getUpToDate(KEY, ResolutionCache.SESSION, "s1", now + HOUR));
+    }
+
+    @Test
+    public void testHitIsSharedBetweenInstances() throws Exception {
+        File file = resolve("s1", now);
+        ResolutionCache other = new ResolutionCache(new File(repo, ".robovm-resolution.properties"));
+        assertEquals(file.getAbsoluteFile(),
+                other.getUpToDate(KEY, ResolutionCache.DAILY, "s2", now + HOUR));
+    }
+
+    @Test
+    public void testExpiredSession() throws Exception {
+        resolve("s1", now);
+        assertNull(cache.getUpToDate(KEY, ResolutionCache.SESSION, "s2", now));
+    }
+
+    @Test
+    public void testExpiredInterval() throws Exception {
+        resolve("s1", now);
+        assertNotNull(cache.getUpToDate(KEY, "interval:30", "s1", now + HOUR / 4));
+        assertNull(cache.getUpToDate(KEY, "interval:30", "s1", now + HOUR));
+        assertNull(cache.getUpToDate(KEY, ResolutionCache.DAILY, "s1", now + 25 * HOUR));
+        assertNotNull(cache.getUpToDate(KEY, ResolutionCache.NEVER, "s2", now + 1000 * HOUR));
+    }
+
+    @Test
+    public void testAlwaysMisses() throws Exception {
+        resolve("s1", now);
+        assertNull(cache.getUpToDate(KEY, ResolutionCache.ALWAYS, "s1", now));
+    }
+
+    @Test
+    public void testMissingArtifact() throws Exception {
+        assertNull(cache.getUpToDate(KEY, ResolutionCache.NEVER, "s1", now));
+        File file = resolve("s1", now);
+        assertTrue(file.delete());
+        assertNull(cache.getUpToDate(KEY, ResolutionCache.SESSION, "s1", now));
+        assertNull(cache.getUpToDate(KEY, ResolutionCache.NEVER, "s1", now));
+    }
+
+    @Test
+    public void testResolveFromFileRepositoryOncePerSession() throws Exception {
+        RemoteRepository remote = new RemoteRepository();
+        assertEquals(remote.local, remote.resolve("s1", ResolutionCache.SESSION, now));
+        remote.resolve("s1", ResolutionCache.SESSION, now + HOUR);
+        assertEquals(1, remote.lookups);
+        remote.resolve("s2", ResolutionCache.SESSION, now + HOUR);
+        assertEquals(2, remote.lookups);
+    }
+
+    @Test
+    public void testResolveFromFileRepositoryOncePerInterval() throws Exception {
+        RemoteRepository remote = new RemoteRepository();
+        remote.resolve("s1", "interval:30", now);
+        remote.resolve("s2", "interval:30", now + HOUR / 4);
+        assertEquals(1, remote.lookups);
+        assertEquals(remote.local, remote.resolve("s2", "interval:30", now + HOUR));
+        assertEquals(2, remote.lookups);
+        remote.resolve("s2", ResolutionCache.ALWAYS, now + HOUR);
+        assertEquals(3, remote.lookups);
+    }
+
+    @Test
+    public void testResolveMissingFromFileRepository() throws Exception {
+        RemoteRepository remote = new RemoteRepository();
+        assertTrue(remote.remote.delete());
+        assertNull(remote.resolve("s1", ResolutionCache.SESSION, now));
+        assertEquals(1, remote.lookups);
+    }
+
+    /**
+     * A {@code file://} remote repository holding a snapshot of the dist and
+     * a stand-in for Maven's resolver which copies artifacts from it into the
+     * local repository and counts the lookups.
+     */
+    private class RemoteRepository implements InvocationHandler {
+        final ArtifactRepository remoteRepository;
+        final ArtifactRepository localRepository;
+        final File remote;
+        final File local;
+        int lookups;
+
+        RemoteRepository() throws IOException {
+            ArtifactRepositoryPolicy policy = new ArtifactRepositoryPolicy();
+            remoteRepository = new MavenArtifactRepository("remote",
+                    tmp.newFolder("remote").toURI().toString(),
+                    new DefaultRepositoryLayout(), policy, policy);
+            localRepository = new MavenArtifactRepository("local", repo.toURI().toString(),
+                    new DefaultRepositoryLayout(), policy, policy);
+            remote = new File(URI.create(remoteRepository.getUrl()).getPath(),
+                    remoteRepository.pathOf(createArtifact()));
+            local = new File(localRepository.getBasedir(), localRepository.pathOf(createArtifact()));
+            remote.getParentFile().mkdirs();
+            Files.write(remote.toPath(), new byte[] {1, 2, 3});
+        }
+
+        File resolve(String sessionId, String policy, long time) {
+            ArtifactResolutionRequest request = new ArtifactResolutionRequest();
+            request.setArtifact(createArtifact());
+            request.setLocalRepository(localRepository);
+            request.setRemoteRepositories(Collections.singletonList(remoteRepository));
+            ArtifactResolver resolver = (ArtifactResolver) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[] {ArtifactResolver.class}, this);
+            Artifact artifact = cache.resolve(resolver, request, policy, sessionId, time,
+                    new SystemStreamLog());
+            return artifact != null ? artifact.getFile() : null;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().equals("resolve") || args.length != 1) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            ArtifactResolutionRequest request = (ArtifactResolutionRequest) args[0];
+            assertTrue(request.isForceUpdate());
+            lookups++;
+            Artifact artifact = request.getArtifact();
+            ArtifactResolutionResult result = new ArtifactResolutionResult();
+            if (!remote.exists()) {
+                result.addMissingArtifact(artifact);
+                return result;
+            }
+            local.getParentFile().mkdirs();
+            Files.copy(remote.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            artifact.setFile(local);
+            artifact.setResolved(true);
+            result.addArtifact(artifact);
+            return result;
+        }
+    }
+
+    private static Artifact createArtifact() {
+        return new DefaultArtifact("org.robovm", "robovm-dist", "1.14.1-SNAPSHOT", "",
+                "tar.gz", "nocompiler", new MavenArtifactHandler("tar.gz"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPolicy() {
+        ResolutionCache.checkPolicy("interval:soon");
+    }
+}
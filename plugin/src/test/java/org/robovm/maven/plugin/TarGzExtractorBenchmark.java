@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import java.io.File;
+import java.util.Random;
+
+import org.codehaus.plexus.archiver.tar.TarGZipUnArchiver;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.robovm.maven.plugin.TarGzExtractorTest.TarGzBuilder;
+
+/**
+ * Compares {@link TarGzExtractor} against the Plexus {@link TarGZipUnArchiver}
+ * previously used to unpack the dist. Not run as part of the regular build.
+ * Run it using:
+ * <pre>
+ * mvn test -Dtest=TarGzExtractorBenchmark [-Drobovm.benchmark.scale=4]
+ * </pre>
+ * The synthetic archive mimics the shape of a dist: thousands of small
+ * files (headers, class files, runtime sources) and a few large libraries.
+ */
+public class TarGzExtractorBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void benchmark() throws Exception {
+        int scale = Integer.getInteger("robovm.benchmark.scale", 1);
+        File archive = createArchive(tmp.newFile("dist.tar.gz"), scale);
+        System.out.format("Archive: %d KB compressed%n", archive.length() / 1024);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            File dest = tmp.newFolder();
+            long start = System.nanoTime();
+            TarGZipUnArchiver unArchiver = new TarGZipUnArchiver();
+            unArchiver.enableLogging(new ConsoleLogger(Logger.LEVEL_WARN, "unarchiver"));
+            unArchiver.setSourceFile(archive);
+            unArchiver.setDestDirectory(dest);
+            unArchiver.extract();
+            long unArchiverMs = (System.nanoTime() - start) / 1000000;
+
+            dest = tmp.newFolder();
+            start = System.nanoTime();
+            new TarGzExtractor().extract(archive, dest);
+            long extractorMs = (System.nanoTime() - start) / 1000000;
+
+            System.out.format("Round %d: UnArchiver %d ms, TarGzExtractor %d ms%n",
+                    round + 1, unArchiverMs, extractorMs);
+        }
+    }
+
+    private static File createArchive(File file, int scale) throws Exception {
+        Random random = new Random(0);
+        TarGzBuilder builder = new TarGzBuilder(file);
+        builder.dir("robovm/");
+        for (int i = 0; i < 4000 * scale; i++) {
+            builder.file("robovm/lib/src/" + (i % 100) + "/File" + i + ".java",
+                    contents(random, 1024 + random.nextInt(32 * 1024)), 0644);
+        }
+        for (int i = 0; i < 4 * scale; i++) {
+            builder.file("robovm/lib/vm/libllvm" + i + ".a",
+                    contents(random, 24 * 1024 * 1024), 0644);
+        }
+        builder.file("robovm/bin/robovm", contents(random, 4096), 0755);
+        return builder.close();
+    }
+
+    /**
+     * Returns data which compresses roughly as well as object code does.
+     */
+    private static byte[] contents(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i += 4) {
+            data[i] = (byte) random.nextInt(256);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.plugin;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link TarGzExtractor}.
+ */
+public class TarGzExtractorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testExtractsFilesAndLinks() throws Exception {
+        File archive = new TarGzBuilder(tmp.newFile("a.tar.gz"))
+                .dir("robovm/")
+                .dir("robovm/bin/")
+                .file("robovm/bin/robovm", "#!/bin/sh", 0755)
+                .file("robovm/lib/big.a", new byte[9 * 1024 * 1024], 0644)
+                .symlink("robovm/bin/rvm", "robovm")
+                .symlink("robovm/lib/bin", "../bin")
+                .hardlink("robovm/bin/robovm2", "robovm/bin/robovm")
+                .close();
+        File dest = tmp.newFolder("dest");
+        new TarGzExtractor(2).extract(archive, dest);
+
+        File bin = new File(dest, "robovm/bin");
+        assertEquals("#!/bin/sh", read(new File(bin, "robovm")));
+        assertTrue(new File(bin, "robovm").canExecute());
+        assertEquals(9 * 1024 * 1024, new File(dest, "robovm/lib/big.a").length());
+        assertTrue(Files.isSymbolicLink(new File(bin, "rvm").toPath()));
+        assertEquals("#!/bin/sh", read(new File(bin, "rvm")));
+        assertEquals("#!/bin/sh", read(new File(dest, "robovm/lib/bin/robovm")));
+        assertEquals("#!/bin/sh", read(new File(bin, "robovm2")));
+    }
+
+    @Test
+    public void testRejectsAbsoluteSymlink() throws Exception {
+        File archive = new TarGzBuilder(tmp.newFile("a.tar.gz"))
+                .symlink("robovm/etc", "/etc")
+                .close();
+        assertRejected(archive);
+    }
+
+    @Test
+    public void testRejectsEscapingSymlink() throws Exception {
+        File archive = new TarGzBuilder(tmp.newFile("a.tar.gz"))
+                .symlink("robovm/lib/up", "../../..")
+                .close();
+        assertRejected(archive);
+    }
+
+    @Test
+    public void testRejectsSymlinkChainEscaping() throws Exception {
+        // Each target stays inside lexically but up/.. resolves to the
+        // parent of the destination.
+        File archive = new TarGzBuilder(tmp.newFile("a.tar.gz"))
+                .symlink("robovm/a/up", "../..")
+                .symlink("robovm/out", "a/up/..")
+                .close();
+        assertRejected(archive);
+    }
+
+    @Test
+    public void testRefusesToWriteThroughSymlink() throws Exception {
+        File outside = tmp.newFolder("outside");
+        File archive = new TarGzBuilder(tmp.newFile("a.tar.gz"))
+                .file("robovm/evil", "evil", 0644)
+                .close();
+        File dest = tmp.newFolder("dest");
+        Files.createSymbolicLink(new File(dest, "robovm").toPath(), outside.toPath());
+        try {
+            new TarGzExtractor(2).extract(archive, dest);
+            fail("Expected IOException");
+        } catch (IOException e) {
+        }
+        assertFalse(new File(outside, "evil").exists());
+    }
+
+    @Test
+    public void testRefusesToReplaceDirectoryWithSymlink() throws Exception {
+        File archive = new TarGzBuilder(tmp.newFile("a.tar.gz"))
+                .file("robovm/lib/a", "a", 0644)
+                .symlink("robovm/lib", "bin")
+                .close();
+        assertRejected(archive);
+    }
+
+    private void assertRejected(File archive) throws Exception {
+        File dest = tmp.newFolder("dest");
+        try {
+            new TarGzExtractor(2).extract(archive, dest);
+            fail("Expected IOException");
+        } catch (IOException e) {
+        }
+    }
+
+    private static String read(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes {@code .tar.gz} archives for tests and benchmarks.
+     */
+    static class TarGzBuilder {
+        private final File file;
+        private final TarArchiveOutputStream out;
+
+        TarGzBuilder(File file) throws IOException {
+            this.file = file;
+            this.out = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+            out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        }
+
+        TarGzBuilder dir(String name) throws IOException {
+            TarArchiveEntry entry = new TarArchiveEntry(name);
+            entry.setMode(040755);
+            out.putArchiveEntry(entry);
+            out.closeArchiveEntry();
+            return this;
+        }
+
+        TarGzBuilder file(String name, String contents, int mode) throws IOException {
+            return file(name, contents.getBytes(StandardCharsets.UTF_8), mode);
+        }
+
+        TarGzBuilder file(String name, byte[] contents, int mode) throws IOException {
+            return file(name, contents, mode, System.currentTimeMillis());
+        }
+
+        TarGzBuilder file(String name, byte[] contents, int mode, long modTime) throws IOException {
+            TarArchiveEntry entry = new TarArchiveEntry(name);
+            entry.setMode(0100000 | mode);
+            entry.setModTime(modTime);
+            entry.setSize(contents.length);
+            out.putArchiveEntry(entry);
+            out.write(contents);
+            out.closeArchiveEntry();
+            return this;
+        }
+
+        TarGzBuilder symlink(String name, String target) throws IOException {
+            TarArchiveEntry entry = new TarArchiveEntry(name, TarArchiveEntry.LF_SYMLINK);
+            entry.setLinkName(target);
+            out.putArchiveEntry(entry);
+            out.closeArchiveEntry();
+            return this;
+        }
+
+        TarGzBuilder hardlink(String name, String target) throws IOException {
+            TarArchiveEntry entry = new TarArchiveEntry(name, TarArchiveEntry.LF_LINK);
+            entry.setLinkName(target);
+            out.putArchiveEntry(entry);
+            out.closeArchiveEntry();
+            return this;
+        }
+
+        File close() throws IOException {
+            out.close();
+            return file;
+        }
+    }
+}
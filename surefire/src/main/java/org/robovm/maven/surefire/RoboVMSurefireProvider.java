@@ -15,18 +15,29 @@
  */
 package org.robovm.maven.surefire;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.exec.CommandLine;
 import org.apache.maven.surefire.common.junit4.JUnit4RunListener;
@@ -60,12 +71,15 @@ import org.robovm.compiler.config.Config;
 import org.robovm.compiler.config.Config.Home;
 import org.robovm.compiler.config.OS;
 import org.robovm.compiler.log.Logger;
+import org.robovm.compiler.target.ConsoleTarget;
 import org.robovm.compiler.target.LaunchParameters;
 import org.robovm.compiler.target.ios.DeviceType;
-import org.robovm.compiler.target.ios.ProvisioningProfile;
-import org.robovm.compiler.target.ios.SigningIdentity;
 import org.robovm.compiler.target.ios.SimulatorLaunchParameters;
 import org.robovm.junit.client.TestClient;
+import org.robovm.maven.common.BuildFingerprint;
+import org.robovm.maven.common.CacheGcLock;
+import org.robovm.maven.common.Digests;
+import org.robovm.maven.common.SigningCache;
 import org.robovm.maven.resolver.RoboVMResolver;
 
 public class RoboVMSurefireProvider extends AbstractProvider {
@@ -77,12 +91,21 @@ public class RoboVMSurefireProvider extends AbstractProvider {
     private final static String PROP_PROPERTIES_FILE = "robovm.test.propertiesFile";
     private final static String PROP_IOS_SIGNING_IDENTITY = "robovm.test.iosSignIdentity";
     private final static String PROP_IOS_PROVISIONING_PROFILE = "robovm.test.iosProvisioningProfile";
+    private final static String PROP_IOS_PROVISIONING_PROFILES_DIR = "robovm.test.iosProvisioningProfilesDir";
     private final static String PROP_IOS_SKIP_SIGNING = "robovm.test.iosSkipSigning";
     private final static String PROP_IOS_SIMULATOR_NAME = "robovm.test.device.name";
     private final static String PROP_CACHE_DIR = "robovm.test.cacheDir";
     private final static String PROP_KEYCHAIN_PASSWORD = "robovm.test.keychainPassword";
     private final static String PROP_KEYCHAIN_PASSWORD_FILE = "robovm.test.keychainPasswordFile";
     private final static String PROP_RUN_ARGS = "robovm.test.runArgs";
+    private final static String PROP_SHARDS = "robovm.test.shards";
+    private final static String PROP_TMP_DIR = "robovm.test.tmpDir";
+    private final static String PROP_FORCE_BUILD = "robovm.test.forceBuild";
+    private final static String PROP_BATCH = "robovm.test.batch";
+    private final static String PROP_DURATIONS_FILE = "robovm.test.durationsFile";
+    private final static String PROP_ORDER_BY_DURATION = "robovm.test.orderByDuration";
+    private final static String PROP_IMPACT_ANALYSIS = "robovm.test.impactAnalysis";
+    private final static String PROP_IMPACT_FILE = "robovm.test.impactFile";
 
     private final ClassLoader testClassLoader;
     private final List<org.junit.runner.notification.RunListener> customRunListeners;
@@ -92,6 +115,9 @@ public class RoboVMSurefireProvider extends AbstractProvider {
     private final RunOrderCalculator runOrderCalculator;
     private final ScanResult scanResult;
     private TestsToRun testsToRun;
+    private List<Class<?>> classesToRun;
+    private TestDurations durations;
+    private TestImpact impact;
 
     public RoboVMSurefireProvider(ProviderParameters booterParameters) {
         providerParameters = booterParameters;
@@ -134,8 +160,102 @@ public class RoboVMSurefireProvider extends AbstractProvider {
         Result result = new Result();
         final RunNotifier runNotifier = getRunNotifier(jUnit4TestSetReporter, result, customRunListeners);
 
-        TestClient testClient = new TestClient();
-        testClient.setRunListener(new org.junit.runner.notification.RunListener() {
+        TestClient testClient = createTestClient(forwardTo(runNotifier));
+
+        Process process = null;
+        try {
+            Config.Builder configBuilder = createConfig();
+            StringWriter configXml = new StringWriter();
+            configBuilder.write(configXml, new File(System.getProperty("basedir")));
+            Config config = testClient.configure(configBuilder, isIOS()).build();
+            BuildFingerprint fingerprint = createFingerprint(configXml.toString(), config);
+
+            durations = new TestDurations(getDurationsFile(), config.getOs() + "." + config.getArch());
+            classesToRun = new ArrayList<>();
+            for (Class<?> clazz : testsToRun) {
+                classesToRun.add(clazz);
+            }
+
+            if (Boolean.getBoolean(PROP_IMPACT_ANALYSIS) && StringUtils.isBlank(requestedTestMethod)) {
+                impact = new TestImpact(getImpactFile(), Digests.sha256(Version.getVersion() + "\n"
+                        + config.getOs() + "\n" + config.getArch() + "\n"
+                        + TestImpact.withoutForceLinkClasses(configXml.toString())));
+                impact.scan(config.getClasspath());
+                if (impact.isFullRun()) {
+                    config.getLogger().info("RoboVM version, config or dependencies changed, running all tests");
+                } else {
+                    int total = classesToRun.size();
+                    classesToRun = impact.selectAffected(classesToRun);
+                    config.getLogger().info("%d of %d test classes affected by changes since they last passed",
+                            classesToRun.size(), total);
+                }
+                if (classesToRun.isEmpty()) {
+                    config.getLogger().info("No test classes affected, skipping RoboVM tests");
+                    return reporterFactory.close();
+                }
+                runNotifier.addListener(impact.getListener());
+            }
+
+            AppCompiler appCompiler = new AppCompiler(config);
+            File fingerprintFile = getFingerprintFile();
+            if (!Boolean.getBoolean(PROP_FORCE_BUILD) && !fingerprint.hasChanged()
+                    && isPopulated(getTmpDir())) {
+                config.getLogger().info("RoboVM tests for %s (%s) are up to date, skipping compilation",
+                        config.getOs(), config.getArch());
+            } else {
+                config.getLogger().info("Building RoboVM tests for: %s (%s)", config.getOs(), config.getArch());
+                config.getLogger().info("This could take a while, especially the first time round");
+                // Don't trust a partially built app if the build fails
+                fingerprintFile.delete();
+                // Keep the cache GC of the plugin from evicting classes
+                // while they are being linked
+                try (Closeable cacheLock = CacheGcLock.lockShared(getCacheRoot())) {
+                    appCompiler.build();
+                }
+                fingerprint.store(fingerprintFile);
+            }
+            
+            int shards = getShardCount(config);
+            if (isOrderByDuration(shards)) {
+                classesToRun = durations.sortLongestFirst(classesToRun);
+            }
+            runNotifier.fireTestRunStarted(null);
+            if (shards > 1) {
+                runShards(shards, testClient, config, configXml.toString(), reporter, runNotifier);
+            } else {
+                runNotifier.addListener(durations.getListener());
+                process = appCompiler.launchAsync(createLaunchParameters(config));
+                if (Boolean.getBoolean(PROP_BATCH)) {
+                    executeBatch(testClient, reporter, runNotifier);
+                } else {
+                    for (Class<?> clazz : classesToRun) {
+                        executeTestSet(testClient, clazz, reporter, runNotifier);
+                    }
+                }
+                testClient.terminate();
+                process.waitFor();
+            }
+            runNotifier.fireTestRunFinished(result);
+            storeDurations(config);
+            storeImpact(config);
+            JUnit4RunListener.rethrowAnyTestMechanismFailures(result);
+        } catch (Throwable t) {
+            throw new RuntimeException("RoboVM test run failed", t);
+        } finally {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+
+        return reporterFactory.close();
+    }
+
+    /**
+     * Returns a listener passing the events reported by a test client on to
+     * the specified notifier.
+     */
+    private org.junit.runner.notification.RunListener forwardTo(final RunNotifier runNotifier) {
+        return new org.junit.runner.notification.RunListener() {
             public void testRunStarted(Description description) throws Exception {
                 runNotifier.fireTestRunStarted(description);
             }
@@ -157,7 +277,12 @@ public class RoboVMSurefireProvider extends AbstractProvider {
             public void testIgnored(Description description) throws Exception {
                 runNotifier.fireTestIgnored(description);
             }
-        });
+        };
+    }
+
+    private TestClient createTestClient(org.junit.runner.notification.RunListener listener) {
+        TestClient testClient = new TestClient();
+        testClient.setRunListener(listener);
 
         String runArgs = System.getProperty(PROP_RUN_ARGS, "");
         if (!runArgs.isEmpty()) {
@@ -166,46 +291,306 @@ public class RoboVMSurefireProvider extends AbstractProvider {
                             Arrays.asList(
                                     CommandLine.parse("cmd " + runArgs).getArguments())));
         }
-        
-        Process process = null;
+        return testClient;
+    }
+
+    private LaunchParameters createLaunchParameters(Config config) {
+        LaunchParameters launchParameters = config.getTarget().createLaunchParameters();
+        if (Boolean.getBoolean(PROP_SERVER_DEBUG)) {
+            launchParameters.getArguments().add("-rvm:Drobovm.debug=true");
+        }
+        if (System.getProperty(PROP_IOS_SIMULATOR_NAME) != null && launchParameters instanceof SimulatorLaunchParameters) {
+            DeviceType type = DeviceType.getDeviceType(System.getProperty(PROP_IOS_SIMULATOR_NAME));
+            ((SimulatorLaunchParameters)launchParameters).setDeviceType(type);
+        } else if(launchParameters instanceof SimulatorLaunchParameters) {
+            if(config.getArch() == Arch.x86_64) {
+                ((SimulatorLaunchParameters)launchParameters).setDeviceType(DeviceType.getBestDeviceType(config.getArch(), config.getOs(), null, null, null));
+            }
+        }
+        return launchParameters;
+    }
+
+    /**
+     * Returns the number of test processes to run concurrently. Sharding is
+     * only supported for console targets as the simulator and device
+     * launchers can only run a single instance of an app at a time.
+     */
+    private int getShardCount(Config config) {
+        int shards = Integer.getInteger(PROP_SHARDS, 1);
+        if (shards <= 0) {
+            shards = Runtime.getRuntime().availableProcessors();
+        }
+        shards = Math.min(shards, classesToRun.size());
+        if (shards > 1 && !(config.getTarget() instanceof ConsoleTarget)) {
+            config.getLogger().warn("%s is only supported for console targets, running all tests "
+                    + "in a single process", PROP_SHARDS);
+            return 1;
+        }
+        return shards;
+    }
+
+    /**
+     * Returns {@code true} if the test classes should be started longest
+     * first rather than in surefire's run order. This only pays off when the
+     * classes are split across several test processes, so unless it has
+     * been set explicitly it's only done when sharding.
+     */
+    private boolean isOrderByDuration(int shards) {
+        String value = System.getProperty(PROP_ORDER_BY_DURATION);
+        if (value != null) {
+            return Boolean.parseBoolean(value);
+        }
+        return shards > 1;
+    }
+
+    /**
+     * Runs the tests in the specified number of concurrent instances of the
+     * already built test app. Each instance takes the next test class from a
+     * shared queue whenever it is done with the previous one. The results of
+     * a class are reported as a whole once the class has finished. An
+     * instance which fails to run a class stops taking classes from the
+     * queue. Classes left over once all instances have stopped are reported
+     * as errors.
+     */
+    private void runShards(int shards, TestClient testClient, Config config, String configXml,
+            final RunListener reporter, final RunNotifier runNotifier) throws Throwable {
+
+        config.getLogger().info("Running tests in %d processes", shards);
+        final Queue<Class<?>> queue = new ConcurrentLinkedQueue<>();
+        for (Class<?> clazz : classesToRun) {
+            queue.add(clazz);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(shards);
         try {
-            Config config = testClient.configure(createConfig(), isIOS()).build();
-            config.getLogger().info("Building RoboVM tests for: %s (%s)", config.getOs(), config.getArch());
-            config.getLogger().info("This could take a while, especially the first time round");
-            AppCompiler appCompiler = new AppCompiler(config);
-            appCompiler.build();
-            
-            LaunchParameters launchParameters = config.getTarget().createLaunchParameters();
-            if (Boolean.getBoolean(PROP_SERVER_DEBUG)) {
-                launchParameters.getArguments().add("-rvm:Drobovm.debug=true");
-            }
-            if (System.getProperty(PROP_IOS_SIMULATOR_NAME) != null && launchParameters instanceof SimulatorLaunchParameters) {
-                DeviceType type = DeviceType.getDeviceType(System.getProperty(PROP_IOS_SIMULATOR_NAME));
-                ((SimulatorLaunchParameters)launchParameters).setDeviceType(type);
-            } else if(launchParameters instanceof SimulatorLaunchParameters) {
-                if(config.getArch() == Arch.x86_64) {
-                    ((SimulatorLaunchParameters)launchParameters).setDeviceType(DeviceType.getBestDeviceType(config.getArch(), config.getOs(), null, null, null));
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < shards; i++) {
+                final TestClient shardClient;
+                final Config shardConfig;
+                if (i == 0) {
+                    shardClient = testClient;
+                    shardConfig = config;
+                } else {
+                    // Same app with a different test client. Launches the
+                    // executable already built in the first config's tmp dir.
+                    shardClient = createTestClient(null);
+                    shardConfig = shardClient.configure(copyConfig(configXml, config), isIOS())
+                            .tmpDir(config.getTmpDir()).build();
                 }
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        runShard(shardClient, shardConfig, queue, reporter, runNotifier);
+                        return null;
+                    }
+                }));
             }
-            process = appCompiler.launchAsync(launchParameters);
-            
-            runNotifier.fireTestRunStarted(null);
-            for (Class<?> clazz : testsToRun) {
-                executeTestSet(testClient, clazz, reporter, runNotifier);
+            Throwable failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Class<?> clazz;
+        while ((clazz = queue.poll()) != null) {
+            ReportEntry report = new SimpleReportEntry(this.getClass().getName(), clazz.getName());
+            reporter.testSetStarting(report);
+            reportError(reporter, report, new IllegalStateException(
+                    "Not run since all test processes have failed"));
+            reporter.testSetCompleted(report);
+        }
+    }
+
+    /**
+     * Returns a builder with the same settings as the builder returned by
+     * {@link #createConfig()} which has been written to {@code configXml}
+     * and built into {@code config}. Unlike {@code createConfig()} this
+     * doesn't resolve any artifacts or look up signing identities.
+     */
+    private Config.Builder copyConfig(String configXml, Config config) throws IOException {
+        Config.Builder builder = new Config.Builder();
+        builder.logger(config.getLogger());
+        try {
+            builder.read(new StringReader(configXml), new File(System.getProperty("basedir")));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to copy RoboVM config", e);
+        }
+        builder.home(config.getHome());
+        if (config.getHome().isDev()) {
+            builder.useDebugLibs(Boolean.getBoolean("robovm.useDebugLibs"));
+            builder.dumpIntermediates(true);
+        }
+        if (System.getProperty(PROP_CACHE_DIR) != null) {
+            builder.cacheDir(new File(System.getProperty(PROP_CACHE_DIR)));
+        }
+        // Sharding is only supported for console targets
+        builder.iosSkipSigning(true);
+        return builder;
+    }
+
+    private void runShard(TestClient testClient, Config config, Queue<Class<?>> queue,
+            RunListener reporter, RunNotifier runNotifier) throws Exception {
+
+        // Durations must be recorded as the events happen, not when replayed
+        TestEventRecorder recorder = new TestEventRecorder();
+        RunNotifier shardNotifier = new RunNotifier();
+        shardNotifier.addListener(recorder);
+        shardNotifier.addListener(durations.getListener());
+        testClient.setRunListener(forwardTo(shardNotifier));
+        Process process = new AppCompiler(config).launchAsync(createLaunchParameters(config));
+        try {
+            Class<?> clazz;
+            while ((clazz = queue.poll()) != null) {
+                Throwable error = null;
+                long start = System.nanoTime();
+                try {
+                    testClient.runTests(testToRunToClassPatterns(clazz)).flush();
+                } catch (Throwable t) {
+                    error = t;
+                }
+                durations.recordClass(clazz.getName(), (System.nanoTime() - start) / 1000000);
+                synchronized (reporter) {
+                    ReportEntry report = new SimpleReportEntry(this.getClass().getName(), clazz.getName());
+                    reporter.testSetStarting(report);
+                    recorder.replay(runNotifier);
+                    if (error != null) {
+                        reportError(reporter, report, error);
+                    }
+                    reporter.testSetCompleted(report);
+                }
+                if (error != null) {
+                    // The connection to the test app is gone. Leave the
+                    // remaining classes to the other processes.
+                    config.getLogger().warn("Test process failed while running %s, "
+                            + "not running any more tests in it: %s", clazz.getName(), error);
+                    return;
+                }
             }
             testClient.terminate();
             process.waitFor();
-            runNotifier.fireTestRunFinished(result);
-            JUnit4RunListener.rethrowAnyTestMechanismFailures(result);
-        } catch (Throwable t) {
-            throw new RuntimeException("RoboVM test run failed", t);
         } finally {
-            if (process != null) {
-                process.destroy();
-            }
+            process.destroy();
         }
+    }
 
-        return reporterFactory.close();
+    /**
+     * Returns the directory the test app is built in. Each fork started by
+     * surefire when {@code forkCount > 1} gets a directory of its own since
+     * forks run concurrently and build different sets of test classes.
+     */
+    private File getTmpDir() {
+        if (System.getProperty(PROP_TMP_DIR) != null) {
+            return new File(System.getProperty(PROP_TMP_DIR));
+        }
+        String forkNumber = System.getProperty("surefire.forkNumber");
+        if (forkNumber != null && !"1".equals(forkNumber)) {
+            return new File(System.getProperty("basedir"), "target/robovm-test-" + forkNumber + ".tmp");
+        }
+        return new File(System.getProperty("basedir"), "target/robovm-test.tmp");
+    }
+
+    /**
+     * Returns the root of the compiled class cache, the same directory the
+     * plugin uses.
+     */
+    private File getCacheRoot() {
+        if (System.getProperty(PROP_CACHE_DIR) != null) {
+            return new File(System.getProperty(PROP_CACHE_DIR));
+        }
+        return new File(System.getProperty("user.home"), ".robovm/cache");
+    }
+
+    private File getDurationsFile() {
+        if (System.getProperty(PROP_DURATIONS_FILE) != null) {
+            return new File(System.getProperty(PROP_DURATIONS_FILE));
+        }
+        return new File(System.getProperty("basedir"), "target/robovm-test-durations.properties");
+    }
+
+    /**
+     * Adds the durations of this run to the history unless only some test
+     * methods were run.
+     */
+    private void storeDurations(Config config) {
+        if (!StringUtils.isBlank(requestedTestMethod)) {
+            return;
+        }
+        try {
+            durations.store();
+        } catch (IOException e) {
+            config.getLogger().warn("Failed to store test durations in %s: %s", getDurationsFile(), e);
+        }
+    }
+
+    private File getImpactFile() {
+        if (System.getProperty(PROP_IMPACT_FILE) != null) {
+            return new File(System.getProperty(PROP_IMPACT_FILE));
+        }
+        return new File(System.getProperty("basedir"), "target/robovm-test-impact.properties");
+    }
+
+    /**
+     * Records which of the test classes run by impact analysis have passed.
+     */
+    private void storeImpact(Config config) {
+        if (impact == null) {
+            return;
+        }
+        try {
+            impact.store(classesToRun);
+        } catch (IOException e) {
+            config.getLogger().warn("Failed to store test impact analysis state in %s: %s",
+                    getImpactFile(), e);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the specified directory exists and isn't
+     * empty. An unchanged fingerprint doesn't mean that the test app can be
+     * launched if its tmp dir has been deleted, e.g. by a clean of only
+     * that directory.
+     */
+    private static boolean isPopulated(File dir) {
+        String[] names = dir.list();
+        return names != null && names.length > 0;
+    }
+
+    private File getFingerprintFile() {
+        File tmpDir = getTmpDir();
+        return new File(tmpDir.getParentFile(), tmpDir.getName() + ".fingerprint");
+    }
+
+    /**
+     * Fingerprints the test app, i.e. the config written by
+     * {@link #createConfig()}, the force linked test classes and the contents
+     * of the test classpath.
+     */
+    private BuildFingerprint createFingerprint(String configXml, Config config) throws IOException {
+        BuildFingerprint fingerprint = new BuildFingerprint(BuildFingerprint.load(getFingerprintFile()));
+        fingerprint.put("robovm.version", Version.getVersion())
+                .put("os", String.valueOf(config.getOs()))
+                .put("arch", String.valueOf(config.getArch()))
+                .put("config", Digests.sha256(configXml));
+        List<String> classes = new ArrayList<>();
+        for (Class<?> c : testsToRun.getLocatedClasses()) {
+            classes.add(c.getName());
+        }
+        Collections.sort(classes);
+        fingerprint.put("forceLinkClasses", classes.toString());
+        for (File f : config.getClasspath()) {
+            fingerprint.addFile(f);
+        }
+        return fingerprint;
     }
 
     private boolean isIOS() {
@@ -242,17 +627,64 @@ public class RoboVMSurefireProvider extends AbstractProvider {
         final ReportEntry report = new SimpleReportEntry(this.getClass().getName(), clazz.getName());
         reporter.testSetStarting(report);
 
+        long start = System.nanoTime();
         try {
             testClient.runTests(testToRunToClassPatterns(clazz)).flush();
         } catch (Throwable e) {
-            reporter.testError(SimpleReportEntry.withException(report.getSourceName(), report.getName(),
-                    new PojoStackTraceWriter(report.getSourceName(),
-                            report.getName(), e)));
+            reportError(reporter, report, e);
         } finally {
+            durations.recordClass(clazz.getName(), (System.nanoTime() - start) / 1000000);
             reporter.testSetCompleted(report);
         }
     }
 
+    /**
+     * Runs all test classes using a single request to the test server. The
+     * results are reported as one test set per class. If the request fails
+     * the error is reported against the class being run and every class
+     * which hasn't been started yet is reported as an error of its own.
+     */
+    private void executeBatch(TestClient testClient, RunListener reporter, RunNotifier listeners) {
+        List<String> patterns = new ArrayList<>();
+        for (Class<?> clazz : classesToRun) {
+            patterns.addAll(Arrays.asList(testToRunToClassPatterns(clazz)));
+        }
+        TestSetDemultiplexer demultiplexer = new TestSetDemultiplexer(this.getClass().getName(),
+                reporter, listeners);
+        testClient.setRunListener(demultiplexer);
+
+        Throwable error = null;
+        try {
+            testClient.runTests(patterns.toArray(new String[patterns.size()])).flush();
+        } catch (Throwable e) {
+            error = e;
+            ReportEntry report = demultiplexer.getCurrentTestSet();
+            if (report != null) {
+                reportError(reporter, report, e);
+            }
+        }
+        // Report classes without any results, just like when running them
+        // one at a time
+        List<String> classNames = new ArrayList<>();
+        for (Class<?> clazz : classesToRun) {
+            classNames.add(clazz.getName());
+        }
+        for (ReportEntry report : demultiplexer.finish(classNames, error)) {
+            if (error != null && impact != null) {
+                impact.failed(report.getName());
+            }
+        }
+    }
+
+    private void reportError(RunListener reporter, ReportEntry report, Throwable e) {
+        if (impact != null) {
+            impact.failed(report.getName());
+        }
+        reporter.testError(SimpleReportEntry.withException(report.getSourceName(), report.getName(),
+                new PojoStackTraceWriter(report.getSourceName(),
+                        report.getName(), e)));
+    }
+
     private Config.Builder createConfig() throws IOException {
         Config.Builder configBuilder = new Config.Builder();
 
@@ -332,17 +764,25 @@ public class RoboVMSurefireProvider extends AbstractProvider {
         if (Boolean.getBoolean(PROP_IOS_SKIP_SIGNING)) {
             configBuilder.iosSkipSigning(true);
         } else {
+            File profilesDir = null;
+            if (System.getProperty(PROP_IOS_PROVISIONING_PROFILES_DIR) != null) {
+                profilesDir = new File(System.getProperty(PROP_IOS_PROVISIONING_PROFILES_DIR));
+            }
+            File cacheDir = null;
+            if (System.getProperty(PROP_CACHE_DIR) != null) {
+                cacheDir = new File(System.getProperty(PROP_CACHE_DIR));
+            }
+            SigningCache signingCache = new SigningCache(profilesDir, cacheDir);
             if (System.getProperty(PROP_IOS_SIGNING_IDENTITY) != null) {
                 String iosSignIdentity = System.getProperty(PROP_IOS_SIGNING_IDENTITY);
                 logger.debug("Using explicit iOS Signing identity: " + iosSignIdentity);
-                configBuilder.iosSignIdentity(SigningIdentity.find(
-                        SigningIdentity.list(), iosSignIdentity));
+                configBuilder.iosSignIdentity(signingCache.findSigningIdentity(iosSignIdentity));
             }
             if (System.getProperty(PROP_IOS_PROVISIONING_PROFILE) != null) {
                 String iosProvisioningProfile = System.getProperty(PROP_IOS_PROVISIONING_PROFILE);
                 logger.debug("Using explicit iOS provisioning profile: " + iosProvisioningProfile);
-                configBuilder.iosProvisioningProfile(ProvisioningProfile.find(
-                        ProvisioningProfile.list(), iosProvisioningProfile));
+                configBuilder.iosProvisioningProfile(signingCache
+                        .findProvisioningProfile(iosProvisioningProfile));
             }
 
             if (System.getProperty(PROP_KEYCHAIN_PASSWORD) != null) {
@@ -403,6 +843,8 @@ public class RoboVMSurefireProvider extends AbstractProvider {
             configBuilder.addForceLinkClass(c.getName());
         }
         configBuilder.skipInstall(true);
+        // A stable tmp dir allows reusing the app built by a previous run
+        configBuilder.tmpDir(getTmpDir());
 
         return configBuilder;
     }
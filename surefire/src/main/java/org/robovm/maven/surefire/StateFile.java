@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.surefire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Reads and updates the properties files the provider keeps its state in
+ * across runs, e.g. {@link TestDurations}. Surefire forks store their state
+ * concurrently, so an update re-reads the file and writes it back while
+ * holding an exclusive lock on a lock file next to it, like the plugin does
+ * for its state files.
+ */
+final class StateFile {
+
+    /**
+     * Merges the state of a run into the state read from the file.
+     */
+    interface Update {
+        void apply(Properties props);
+    }
+
+    private StateFile() {
+    }
+
+    /**
+     * Returns the properties in the specified file. A missing or unreadable
+     * file is treated as empty.
+     */
+    static Properties load(File file) {
+        Properties props = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            } catch (IOException e) {
+                props.clear();
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Applies the specified update to the current contents of the specified
+     * file and writes the result back.
+     */
+    static void update(File file, String comment, Update update) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File lockFile = new File(dir, file.getName() + ".lock");
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FileLock lock = channel.lock()) {
+
+            Properties props = load(file);
+            update.apply(props);
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, comment);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.surefire;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Keeps track of how long test classes and methods take to run on a
+ * particular os and arch. The durations of a run are blended with the
+ * durations of previous runs and used to start the longest running classes
+ * first, which shortens the total time of a run split across several test
+ * processes. Test processes of concurrent surefire forks merge their
+ * durations into the same file.
+ */
+public class TestDurations {
+
+    private static final String CLASS_PREFIX = "class.";
+    private static final String METHOD_PREFIX = "method.";
+
+    private final File file;
+    private final String prefix;
+    private final Properties history;
+    private final Map<String, Long> classes = new HashMap<>();
+    private final Map<String, Long> methods = new HashMap<>();
+    private final Map<String, Long> methodStarts = new HashMap<>();
+
+    /**
+     * Loads the durations recorded for the specified os and arch, e.g.
+     * {@code ios.x86_64}, from the specified file. A missing or unreadable
+     * file is treated as empty.
+     */
+    public TestDurations(File file, String osArch) {
+        this.file = file;
+        this.prefix = osArch + ".";
+        this.history = StateFile.load(file);
+    }
+
+    /**
+     * Returns the duration of the specified class in milliseconds recorded
+     * by previous runs or {@code -1} if unknown.
+     */
+    public long getClassDuration(String className) {
+        return getDuration(CLASS_PREFIX + className);
+    }
+
+    /**
+     * Returns the duration of the specified test method in milliseconds
+     * recorded by previous runs or {@code -1} if unknown.
+     */
+    public long getMethodDuration(String className, String methodName) {
+        return getDuration(METHOD_PREFIX + className + "#" + methodName);
+    }
+
+    private long getDuration(String key) {
+        String value = history.getProperty(prefix + key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                // Treat as unknown
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sorts the specified classes by their recorded durations, longest first.
+     * Classes without a recorded duration are assumed to take as long as the
+     * average class. Classes taking equally long keep their relative order.
+     */
+    public List<Class<?>> sortLongestFirst(List<Class<?>> classes) {
+        List<Class<?>> sorted = new ArrayList<>(classes);
+        final Map<Class<?>, Long> durations = new HashMap<>();
+        long total = 0;
+        int known = 0;
+        for (Class<?> c : classes) {
+            long duration = getClassDuration(c.getName());
+            if (duration >= 0) {
+                durations.put(c, duration);
+                total += duration;
+                known++;
+            }
+        }
+        if (known == 0) {
+            return sorted;
+        }
+        final long average = total / known;
+        Collections.sort(sorted, new Comparator<Class<?>>() {
+            public int compare(Class<?> o1, Class<?> o2) {
+                Long d1 = durations.get(o1);
+                Long d2 = durations.get(o2);
+                return Long.compare(d2 != null ? d2 : average, d1 != null ? d1 : average);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Records the wall time of a test class including its class level setup
+     * and tear down.
+     */
+    public synchronized void recordClass(String className, long millis) {
+        classes.put(className, millis);
+    }
+
+    /**
+     * Returns a listener which records the duration of every test method.
+     * Must receive the events as they happen.
+     */
+    public RunListener getListener() {
+        return new RunListener() {
+            @Override
+            public void testStarted(Description description) {
+                synchronized (TestDurations.this) {
+                    methodStarts.put(getKey(description), System.nanoTime());
+                }
+            }
+
+            @Override
+            public void testFinished(Description description) {
+                synchronized (TestDurations.this) {
+                    String key = getKey(description);
+                    Long start = methodStarts.remove(key);
+                    if (start != null) {
+                        methods.put(key, (System.nanoTime() - start) / 1000000);
+                    }
+                }
+            }
+        };
+    }
+
+    private static String getKey(Description description) {
+        return description.getClassName() + "#" + description.getMethodName();
+    }
+
+    /**
+     * Blends the durations recorded during this run into the history and
+     * writes it back to the file. The file is re-read while holding a lock,
+     * so durations stored by other test processes in the meantime are kept.
+     * Classes whose wall time hasn't been recorded explicitly are assumed to
+     * take as long as their methods combined.
+     */
+    public synchronized void store() throws IOException {
+        final Map<String, Long> updates = new HashMap<>();
+        Map<String, Long> classTimes = new HashMap<>();
+        for (Map.Entry<String, Long> entry : methods.entrySet()) {
+            String className = entry.getKey().substring(0, entry.getKey().lastIndexOf('#'));
+            Long sum = classTimes.get(className);
+            classTimes.put(className, (sum != null ? sum : 0) + entry.getValue());
+            updates.put(METHOD_PREFIX + entry.getKey(), entry.getValue());
+        }
+        classTimes.putAll(classes);
+        for (Map.Entry<String, Long> entry : classTimes.entrySet()) {
+            updates.put(CLASS_PREFIX + entry.getKey(), entry.getValue());
+        }
+
+        StateFile.update(file, "RoboVM test durations in milliseconds", new StateFile.Update() {
+            public void apply(Properties props) {
+                for (Map.Entry<String, Long> entry : updates.entrySet()) {
+                    update(props, prefix + entry.getKey(), entry.getValue());
+                }
+                history.clear();
+                history.putAll(props);
+            }
+        });
+    }
+
+    private static void update(Properties props, String key, long millis) {
+        // Average with the previous runs to smooth out outliers
+        String old = props.getProperty(key);
+        long value = millis;
+        if (old != null) {
+            try {
+                value = (Long.parseLong(old) + millis) / 2;
+            } catch (NumberFormatException e) {
+                // Overwrite
+            }
+        }
+        props.setProperty(key, String.valueOf(value));
+    }
+}
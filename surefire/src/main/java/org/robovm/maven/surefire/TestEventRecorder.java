@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.surefire;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * Records the events reported by a test process so they can be passed on to
+ * the {@link RunNotifier} in one go. Used when several test processes run
+ * concurrently, as surefire expects the events of a test class to be
+ * reported between its {@code testSetStarting} and {@code testSetCompleted}
+ * without being interleaved with the events of other classes.
+ */
+public class TestEventRecorder extends RunListener {
+
+    private interface Event {
+        void fire(RunNotifier notifier);
+    }
+
+    private final List<Event> events = new ArrayList<>();
+
+    private synchronized void add(Event event) {
+        events.add(event);
+    }
+
+    /**
+     * Fires the recorded events on the specified notifier and forgets them.
+     */
+    public void replay(RunNotifier notifier) {
+        List<Event> copy;
+        synchronized (this) {
+            copy = new ArrayList<>(events);
+            events.clear();
+        }
+        for (Event event : copy) {
+            event.fire(notifier);
+        }
+    }
+
+    @Override
+    public void testRunStarted(final Description description) {
+        add(new Event() {
+            public void fire(RunNotifier notifier) {
+                notifier.fireTestRunStarted(description);
+            }
+        });
+    }
+
+    @Override
+    public void testRunFinished(final Result result) {
+        add(new Event() {
+            public void fire(RunNotifier notifier) {
+                notifier.fireTestRunFinished(result);
+            }
+        });
+    }
+
+    @Override
+    public void testStarted(final Description description) {
+        add(new Event() {
+            public void fire(RunNotifier notifier) {
+                notifier.fireTestStarted(description);
+            }
+        });
+    }
+
+    @Override
+    public void testFinished(final Description description) {
+        add(new Event() {
+            public void fire(RunNotifier notifier) {
+                notifier.fireTestFinished(description);
+            }
+        });
+    }
+
+    @Override
+    public void testFailure(final Failure failure) {
+        add(new Event() {
+            public void fire(RunNotifier notifier) {
+                notifier.fireTestFailure(failure);
+            }
+        });
+    }
+
+    @Override
+    public void testAssumptionFailure(final Failure failure) {
+        add(new Event() {
+            public void fire(RunNotifier notifier) {
+                notifier.fireTestAssumptionFailed(failure);
+            }
+        });
+    }
+
+    @Override
+    public void testIgnored(final Description description) {
+        add(new Event() {
+            public void fire(RunNotifier notifier) {
+                notifier.fireTestIgnored(description);
+            }
+        });
+    }
+}
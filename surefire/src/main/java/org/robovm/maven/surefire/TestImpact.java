@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.surefire;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.robovm.maven.common.ClassInfo;
+import org.robovm.maven.common.Digests;
+
+/**
+ * Selects the test classes affected by changes since they last passed. The
+ * classes in the directories on the test classpath (usually
+ * {@code target/classes} and {@code target/test-classes}) form a dependency
+ * graph derived from their bytecode. A test class is affected if the content
+ * of any class it transitively depends on has changed, or if the test class
+ * failed or didn't run last time.
+ * <p>
+ * Changes not visible in the graph, i.e. to the RoboVM version, the config,
+ * jars on the classpath or resources in the class directories, affect all
+ * test classes.
+ */
+public class TestImpact {
+
+    private static final String KEY = "key";
+    private static final String TEST_PREFIX = "test.";
+    private static final Pattern FORCE_LINK_CLASSES = Pattern.compile(
+            "\\s*<forceLinkClasses\\s*/>|\\s*<forceLinkClasses>.*?</forceLinkClasses>", Pattern.DOTALL);
+
+    private final File file;
+    private final Properties state;
+    private final Map<String, String> hashes = new HashMap<>();
+    private final Map<String, Set<String>> references = new HashMap<>();
+    private final Set<String> failed = new HashSet<>();
+    private final StringBuilder key = new StringBuilder();
+    private boolean fullRun;
+
+    /**
+     * Loads the state of the previous run from the specified file.
+     *
+     * @param globalKey hash of everything besides the classpath which
+     *            affects all tests, e.g. the RoboVM version and the config.
+     */
+    public TestImpact(File file, String globalKey) {
+        this.file = file;
+        this.state = StateFile.load(file);
+        key.append(globalKey).append('\n');
+    }
+
+    /**
+     * Returns the specified config XML without its
+     * {@code <forceLinkClasses>}, which the provider fills with the test
+     * classes to run. Adding or removing a test class must not make the
+     * config look changed and thereby run all tests.
+     */
+    static String withoutForceLinkClasses(String configXml) {
+        return FORCE_LINK_CLASSES.matcher(configXml).replaceAll("");
+    }
+
+    /**
+     * Reads the classes in the directories on the specified classpath and
+     * fingerprints all other entries.
+     */
+    public void scan(List<File> classpath) throws IOException {
+        for (File entry : classpath) {
+            if (entry.isDirectory()) {
+                scan(entry, "");
+            } else {
+                addFile(entry);
+            }
+        }
+        String oldKey = state.getProperty(KEY);
+        String newKey = getKey();
+        if (oldKey == null || !oldKey.equals(newKey)) {
+            fullRun = true;
+            state.clear();
+        }
+    }
+
+    private void scan(File dir, String prefix) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                scan(child, path + "/");
+            } else if (path.endsWith(".class")) {
+                byte[] bytes = Files.readAllBytes(child.toPath());
+                String className = path.substring(0, path.length() - ".class".length());
+                if (hashes.containsKey(className)) {
+                    // Shadowed by an earlier classpath entry
+                    continue;
+                }
+                hashes.put(className, Digests.sha256(bytes));
+                try {
+                    references.put(className, ClassInfo.parse(bytes).getReferences());
+                } catch (IOException | RuntimeException e) {
+                    // Unparsable, so we don't know what it depends on. Make
+                    // sure its dependents are still affected by it.
+                    references.put(className, new HashSet<String>());
+                }
+            } else {
+                addFile(child);
+            }
+        }
+    }
+
+    private void addFile(File f) {
+        key.append(f.getAbsolutePath()).append(':').append(f.length())
+                .append(':').append(f.lastModified()).append('\n');
+    }
+
+    private String getKey() {
+        return Digests.sha256(key.toString());
+    }
+
+    /**
+     * Returns {@code true} if all tests have to run because of a change not
+     * covered by the dependency graph or because there is no previous state.
+     */
+    public boolean isFullRun() {
+        return fullRun;
+    }
+
+    /**
+     * Returns the hash of the specified class and all classes it
+     * transitively depends on.
+     */
+    public String getClosureHash(String className) {
+        Set<String> closure = new TreeSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(className);
+        closure.add(className);
+        while (!queue.isEmpty()) {
+            Set<String> refs = references.get(queue.poll());
+            if (refs != null) {
+                for (String ref : refs) {
+                    if (hashes.containsKey(ref) && closure.add(ref)) {
+                        queue.add(ref);
+                    }
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String c : closure) {
+            sb.append(c).append('=').append(hashes.get(c)).append('\n');
+        }
+        return Digests.sha256(sb.toString());
+    }
+
+    /**
+     * Returns the specified test classes which are affected by changes since
+     * they last passed, in the same order.
+     */
+    public List<Class<?>> selectAffected(List<Class<?>> classes) {
+        List<Class<?>> affected = new ArrayList<>();
+        for (Class<?> c : classes) {
+            String internalName = c.getName().replace('.', '/');
+            if (!getClosureHash(internalName).equals(state.getProperty(TEST_PREFIX + c.getName()))) {
+                affected.add(c);
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Marks the specified test class as failed. Failed classes are run again
+     * next time regardless of changes.
+     */
+    public synchronized void failed(String className) {
+        failed.add(className);
+    }
+
+    /**
+     * Returns a listener marking the classes of failed tests as failed.
+     */
+    public RunListener getListener() {
+        return new RunListener() {
+            @Override
+            public void testFailure(Failure failure) {
+                String className = failure.getDescription().getClassName();
+                if (className != null) {
+                    failed(className);
+                }
+            }
+        };
+    }
+
+    /**
+     * Records the specified test classes which have been run and didn't fail
+     * as passed and writes the state to the file. The file is re-read while
+     * holding a lock, so classes recorded by other test processes with the
+     * same key in the meantime are kept.
+     */
+    public synchronized void store(List<Class<?>> ran) throws IOException {
+        final String newKey = getKey();
+        final Map<String, String> passed = new HashMap<>();
+        final Set<String> notPassed = new HashSet<>();
+        for (Class<?> c : ran) {
+            if (failed.contains(c.getName())) {
+                notPassed.add(TEST_PREFIX + c.getName());
+            } else {
+                passed.put(TEST_PREFIX + c.getName(), getClosureHash(c.getName().replace('.', '/')));
+            }
+        }
+        StateFile.update(file, "RoboVM test impact analysis", new StateFile.Update() {
+            public void apply(Properties props) {
+                if (!newKey.equals(props.getProperty(KEY))) {
+                    // Written for different classpath jars or config
+                    props.clear();
+                    props.setProperty(KEY, newKey);
+                }
+                for (String name : notPassed) {
+                    props.remove(name);
+                }
+                props.putAll(passed);
+                state.clear();
+                state.putAll(props);
+            }
+        });
+    }
+}
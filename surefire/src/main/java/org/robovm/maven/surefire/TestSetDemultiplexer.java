@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.surefire;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.surefire.report.PojoStackTraceWriter;
+import org.apache.maven.surefire.report.ReportEntry;
+import org.apache.maven.surefire.report.SimpleReportEntry;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * Splits the events of a test run covering several test classes into one
+ * surefire test set per class. A test set is started when the first event
+ * of a class arrives and completed when the first event of another class
+ * arrives or when the run is finished.
+ */
+public class TestSetDemultiplexer extends RunListener {
+
+    private final String sourceName;
+    private final org.apache.maven.surefire.report.RunListener reporter;
+    private final RunNotifier notifier;
+    private final Set<String> startedClasses = new HashSet<>();
+    private ReportEntry current;
+
+    public TestSetDemultiplexer(String sourceName,
+            org.apache.maven.surefire.report.RunListener reporter, RunNotifier notifier) {
+
+        this.sourceName = sourceName;
+        this.reporter = reporter;
+        this.notifier = notifier;
+    }
+
+    /**
+     * Returns the test set currently being reported or {@code null}.
+     */
+    public synchronized ReportEntry getCurrentTestSet() {
+        return current;
+    }
+
+    /**
+     * Completes the current test set, if any, and starts a new one for the
+     * specified class.
+     */
+    public synchronized ReportEntry startTestSet(String className) {
+        finish();
+        current = new SimpleReportEntry(sourceName, className);
+        startedClasses.add(className);
+        reporter.testSetStarting(current);
+        return current;
+    }
+
+    /**
+     * Returns {@code true} if a test set has been started for the specified
+     * class.
+     */
+    public synchronized boolean isStarted(String className) {
+        return startedClasses.contains(className);
+    }
+
+    /**
+     * Completes the current test set, if any.
+     */
+    public synchronized void finish() {
+        if (current != null) {
+            reporter.testSetCompleted(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Completes the current test set, if any, and reports an empty test set
+     * for each of the specified classes which hasn't been started. If
+     * {@code error} isn't {@code null} each of these test sets reports an
+     * error caused by it, e.g. because the test app died before running the
+     * class.
+     *
+     * @return the test sets reported for the classes which hadn't been
+     *         started.
+     */
+    public synchronized List<ReportEntry> finish(List<String> classNames, Throwable error) {
+        finish();
+        List<ReportEntry> reported = new ArrayList<>();
+        for (String className : classNames) {
+            if (!isStarted(className)) {
+                ReportEntry report = startTestSet(className);
+                if (error != null) {
+                    reporter.testError(SimpleReportEntry.withException(report.getSourceName(),
+                            report.getName(), new PojoStackTraceWriter(report.getSourceName(),
+                                    report.getName(), new IllegalStateException(
+                                            "Not run since the test app failed", error))));
+                }
+                finish();
+                reported.add(report);
+            }
+        }
+        return reported;
+    }
+
+    private void switchTo(Description description) {
+        String className = description.getClassName();
+        if (className != null && (current == null || !className.equals(current.getName()))) {
+            startTestSet(className);
+        }
+    }
+
+    @Override
+    public synchronized void testRunStarted(Description description) {
+        notifier.fireTestRunStarted(description);
+    }
+
+    @Override
+    public synchronized void testRunFinished(Result result) {
+        notifier.fireTestRunFinished(result);
+    }
+
+    @Override
+    public synchronized void testStarted(Description description) {
+        switchTo(description);
+        notifier.fireTestStarted(description);
+    }
+
+    @Override
+    public synchronized void testFinished(Description description) {
+        notifier.fireTestFinished(description);
+    }
+
+    @Override
+    public synchronized void testFailure(Failure failure) {
+        switchTo(failure.getDescription());
+        notifier.fireTestFailure(failure);
+    }
+
+    @Override
+    public synchronized void testAssumptionFailure(Failure failure) {
+        switchTo(failure.getDescription());
+        notifier.fireTestAssumptionFailed(failure);
+    }
+
+    @Override
+    public synchronized void testIgnored(Description description) {
+        switchTo(description);
+        notifier.fireTestIgnored(description);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.surefire;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Tests {@link TestDurations}.
+ */
+public class TestDurationsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(tmp.getRoot(), "durations.properties");
+    }
+
+    private static void runMethod(RunListener listener, String className, String methodName)
+            throws Exception {
+        Description description = Description.createTestDescription(className, methodName);
+        listener.testStarted(description);
+        Thread.sleep(20);
+        listener.testFinished(description);
+    }
+
+    @Test
+    public void testStoresClassAndMethodDurations() throws Exception {
+        TestDurations durations = new TestDurations(file, "ios.x86_64");
+        RunListener listener = durations.getListener();
+        runMethod(listener, "a.ATest", "one");
+        runMethod(listener, "a.ATest", "two");
+        durations.recordClass("b.BTest", 500);
+        durations.store();
+
+        TestDurations loaded = new TestDurations(file, "ios.x86_64");
+        assertTrue(loaded.getMethodDuration("a.ATest", "one") >= 20);
+        assertTrue(loaded.getMethodDuration("a.ATest", "two") >= 20);
+        assertTrue(loaded.getClassDuration("a.ATest") >= 40);
+        assertEquals(500, loaded.getClassDuration("b.BTest"));
+        assertEquals(-1, loaded.getMethodDuration("a.ATest", "three"));
+        assertEquals(-1, new TestDurations(file, "ios.arm64").getClassDuration("b.BTest"));
+    }
+
+    @Test
+    public void testConcurrentRunsKeepEachOthersDurations() throws Exception {
+        // Both loaded before either has stored, like two surefire forks
+        TestDurations first = new TestDurations(file, "ios.x86_64");
+        TestDurations second = new TestDurations(file, "ios.x86_64");
+        first.recordClass("a.ATest", 100);
+        first.recordClass("c.CTest", 300);
+        second.recordClass("b.BTest", 200);
+        second.recordClass("c.CTest", 100);
+        first.store();
+        second.store();
+
+        TestDurations loaded = new TestDurations(file, "ios.x86_64");
+        assertEquals(100, loaded.getClassDuration("a.ATest"));
+        assertEquals(200, loaded.getClassDuration("b.BTest"));
+        // Blended with the duration stored by the first run
+        assertEquals(200, loaded.getClassDuration("c.CTest"));
+    }
+
+    @Test
+    public void testSortLongestFirst() throws Exception {
+        TestDurations durations = new TestDurations(file, "ios.x86_64");
+        durations.recordClass(String.class.getName(), 100);
+        durations.recordClass(Integer.class.getName(), 300);
+        durations.store();
+
+        TestDurations loaded = new TestDurations(file, "ios.x86_64");
+        // Long has no duration and takes as long as the average
+        assertEquals(Arrays.<Class<?>> asList(Integer.class, Long.class, String.class),
+                loaded.sortLongestFirst(Arrays.<Class<?>> asList(String.class, Long.class, Integer.class)));
+    }
+}
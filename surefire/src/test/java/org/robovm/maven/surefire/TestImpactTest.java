@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.surefire;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link TestImpact} using class directories built from the fixture
+ * classes below. {@code ATest} depends on {@code Middle} which depends on
+ * {@code Leaf}, {@code BTest} depends on nothing.
+ */
+public class TestImpactTest {
+
+    static class Leaf {
+    }
+
+    static class Middle {
+        Leaf leaf;
+    }
+
+    static class ATest {
+        Middle middle;
+    }
+
+    static class BTest {
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File file;
+    private File classes;
+    private File testClasses;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(tmp.getRoot(), "impact.properties");
+        classes = tmp.newFolder("classes");
+        testClasses = tmp.newFolder("test-classes");
+        copy(Leaf.class, classes);
+        copy(Middle.class, classes);
+        copy(ATest.class, testClasses);
+        copy(BTest.class, testClasses);
+    }
+
+    private static File classFile(Class<?> c, File dir) {
+        return new File(dir, c.getName().replace('.', '/') + ".class");
+    }
+
+    private static void copy(Class<?> c, File dir) throws IOException {
+        copy(c, dir, c);
+    }
+
+    /**
+     * Writes the bytecode of {@code from} to the class file of {@code to}.
+     */
+    private static void copy(Class<?> from, File dir, Class<?> to) throws IOException {
+        File f = classFile(to, dir);
+        f.getParentFile().mkdirs();
+        try (InputStream in = from.getResourceAsStream("/" + from.getName().replace('.', '/') + ".class")) {
+            Files.copy(in, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String internalName(Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+
+    private TestImpact scan(String globalKey, File... classpath) throws IOException {
+        TestImpact impact = new TestImpact(file, globalKey);
+        impact.scan(Arrays.asList(classpath));
+        return impact;
+    }
+
+    private static List<Class<?>> tests() {
+        return Arrays.<Class<?>> asList(ATest.class, BTest.class);
+    }
+
+    @Test
+    public void testClosureHashCoversTransitiveDependencies() throws Exception {
+        TestImpact impact = scan("k", classes, testClasses);
+        String a = impact.getClosureHash(internalName(ATest.class));
+        String b = impact.getClosureHash(internalName(BTest.class));
+
+        // Leaf gets the bytecode of another class
+        copy(BTest.class, classes, Leaf.class);
+        impact = scan("k", classes, testClasses);
+        assertFalse(a.equals(impact.getClosureHash(internalName(ATest.class))));
+        assertEquals(b, impact.getClosureHash(internalName(BTest.class)));
+    }
+
+    @Test
+    public void testOnlyAffectedTestsRunAfterChange() throws Exception {
+        TestImpact impact = scan("k", classes, testClasses);
+        assertTrue(impact.isFullRun());
+        impact.store(tests());
+
+        impact = scan("k", classes, testClasses);
+        assertFalse(impact.isFullRun());
+        assertEquals(Collections.emptyList(), impact.selectAffected(tests()));
+
+        copy(BTest.class, classes, Leaf.class);
+        impact = scan("k", classes, testClasses);
+        assertFalse(impact.isFullRun());
+        assertEquals(Arrays.<Class<?>> asList(ATest.class), impact.selectAffected(tests()));
+    }
+
+    @Test
+    public void testShadowedClassesAreIgnored() throws Exception {
+        File shadowed = tmp.newFolder("shadowed");
+        copy(Leaf.class, shadowed);
+        TestImpact impact = scan("k", classes, testClasses, shadowed);
+        String a = impact.getClosureHash(internalName(ATest.class));
+
+        // Only the first Leaf on the classpath counts
+        copy(BTest.class, shadowed, Leaf.class);
+        impact = scan("k", classes, testClasses, shadowed);
+        assertEquals(a, impact.getClosureHash(internalName(ATest.class)));
+    }
+
+    @Test
+    public void testUnparsableClassesStillAffectTheirDependents() throws Exception {
+        Files.write(classFile(Middle.class, classes).toPath(), new byte[] {1, 2, 3});
+        TestImpact impact = scan("k", classes, testClasses);
+        String a = impact.getClosureHash(internalName(ATest.class));
+
+        Files.write(classFile(Middle.class, classes).toPath(), new byte[] {1, 2, 3, 4});
+        impact = scan("k", classes, testClasses);
+        assertFalse(a.equals(impact.getClosureHash(internalName(ATest.class))));
+    }
+
+    @Test
+    public void testFailedClassesRunAgain() throws Exception {
+        TestImpact impact = scan("k", classes, testClasses);
+        impact.failed(ATest.class.getName());
+        impact.store(tests());
+
+        impact = scan("k", classes, testClasses);
+        assertFalse(impact.isFullRun());
+        assertEquals(Arrays.<Class<?>> asList(ATest.class), impact.selectAffected(tests()));
+    }
+
+    @Test
+    public void testKeyMismatchRunsAllTests() throws Exception {
+        scan("k", classes, testClasses).store(tests());
+
+        assertTrue(scan("other", classes, testClasses).isFullRun());
+
+        // A jar on the classpath changed
+        File jar = tmp.newFile("dep.jar");
+        scan("k", classes, testClasses, jar).store(tests());
+        assertFalse(scan("k", classes, testClasses, jar).isFullRun());
+        Files.write(jar.toPath(), new byte[] {1});
+        TestImpact impact = scan("k", classes, testClasses, jar);
+        assertTrue(impact.isFullRun());
+        assertEquals(tests(), impact.selectAffected(tests()));
+    }
+
+    @Test
+    public void testConcurrentRunsKeepEachOthersResults() throws Exception {
+        // Both scanned before either has stored, like two surefire forks
+        TestImpact first = scan("k", classes, testClasses);
+        TestImpact second = scan("k", classes, testClasses);
+        first.store(Arrays.<Class<?>> asList(ATest.class));
+        second.store(Arrays.<Class<?>> asList(BTest.class));
+
+        assertEquals(Collections.emptyList(), scan("k", classes, testClasses).selectAffected(tests()));
+    }
+
+    @Test
+    public void testForceLinkClassesAreNotPartOfTheKey() {
+        String config = "<config>\n  <os>ios</os>\n  <forceLinkClasses>\n"
+                + "    <pattern>a.ATest</pattern>\n  </forceLinkClasses>\n</config>";
+        String other = "<config>\n  <os>ios</os>\n  <forceLinkClasses>\n"
+                + "    <pattern>a.ATest</pattern>\n    <pattern>b.BTest</pattern>\n"
+                + "  </forceLinkClasses>\n</config>";
+        assertEquals("<config>\n  <os>ios</os>\n</config>", TestImpact.withoutForceLinkClasses(config));
+        assertEquals(TestImpact.withoutForceLinkClasses(config), TestImpact.withoutForceLinkClasses(other));
+        assertEquals("<config/>", TestImpact.withoutForceLinkClasses("<config/>"));
+    }
+}
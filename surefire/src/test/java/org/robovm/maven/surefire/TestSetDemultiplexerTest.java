@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 RoboVM AB.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.maven.surefire;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.surefire.report.ReportEntry;
+import org.apache.maven.surefire.report.RunListener;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * Tests {@link TestSetDemultiplexer} and {@link TestEventRecorder} using a
+ * reporter which records the test sets it is told about.
+ */
+public class TestSetDemultiplexerTest {
+
+    private final List<String> reported = new ArrayList<>();
+    private final List<String> notified = new ArrayList<>();
+    private RunNotifier notifier;
+    private TestSetDemultiplexer demultiplexer;
+
+    @Before
+    public void setUp() {
+        RunListener reporter = (RunListener) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {RunListener.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (args != null && args[0] instanceof ReportEntry) {
+                            ReportEntry entry = (ReportEntry) args[0];
+                            reported.add(method.getName() + " " + entry.getName()
+                                    + (entry.getStackTraceWriter() != null ? " (error)" : ""));
+                        }
+                        return null;
+                    }
+                });
+        notifier = new RunNotifier();
+        notifier.addListener(new org.junit.runner.notification.RunListener() {
+            public void testStarted(Description description) {
+                notified.add("started " + description.getDisplayName());
+            }
+            public void testFinished(Description description) {
+                notified.add("finished " + description.getDisplayName());
+            }
+            public void testFailure(Failure failure) {
+                notified.add("failure " + failure.getDescription().getDisplayName());
+            }
+            public void testIgnored(Description description) {
+                notified.add("ignored " + description.getDisplayName());
+            }
+        });
+        demultiplexer = new TestSetDemultiplexer("source", reporter, notifier);
+    }
+
+    private static Description method(String className, String methodName) {
+        return Description.createTestDescription(className, methodName);
+    }
+
+    @Test
+    public void testSwitchesTestSetWhenClassChanges() {
+        demultiplexer.testStarted(method("a.ATest", "one"));
+        demultiplexer.testFinished(method("a.ATest", "one"));
+        demultiplexer.testStarted(method("a.ATest", "two"));
+        demultiplexer.testFinished(method("a.ATest", "two"));
+        assertEquals("a.ATest", demultiplexer.getCurrentTestSet().getName());
+        demultiplexer.testIgnored(method("b.BTest", "three"));
+        assertEquals("b.BTest", demultiplexer.getCurrentTestSet().getName());
+        demultiplexer.finish();
+        assertNull(demultiplexer.getCurrentTestSet());
+
+        assertEquals(Arrays.asList("testSetStarting a.ATest", "testSetCompleted a.ATest",
+                "testSetStarting b.BTest", "testSetCompleted b.BTest"), reported);
+        assertEquals(Arrays.asList("started one(a.ATest)", "finished one(a.ATest)",
+                "started two(a.ATest)", "finished two(a.ATest)", "ignored three(b.BTest)"), notified);
+        assertTrue(demultiplexer.isStarted("a.ATest"));
+        assertTrue(demultiplexer.isStarted("b.BTest"));
+        assertFalse(demultiplexer.isStarted("c.CTest"));
+    }
+
+    @Test
+    public void testClassLevelEvents() {
+        demultiplexer.testStarted(method("a.ATest", "one"));
+        demultiplexer.testFinished(method("a.ATest", "one"));
+        // e.g. a failing @AfterClass of the current class
+        Description aClass = Description.createSuiteDescription("a.ATest");
+        assertNull(aClass.getMethodName());
+        demultiplexer.testFailure(new Failure(aClass, new AssertionError()));
+        // e.g. a failing @BeforeClass of the next class
+        Description bClass = Description.createSuiteDescription("b.BTest");
+        demultiplexer.testFailure(new Failure(bClass, new AssertionError()));
+        demultiplexer.finish();
+
+        assertEquals(Arrays.asList("testSetStarting a.ATest", "testSetCompleted a.ATest",
+                "testSetStarting b.BTest", "testSetCompleted b.BTest"), reported);
+        assertEquals(Arrays.asList("started one(a.ATest)", "finished one(a.ATest)",
+                "failure a.ATest", "failure b.BTest"), notified);
+    }
+
+    @Test
+    public void testReportsErrorsForClassesWhichNeverStarted() {
+        demultiplexer.testStarted(method("a.ATest", "one"));
+        List<ReportEntry> notStarted = demultiplexer.finish(
+                Arrays.asList("a.ATest", "b.BTest", "c.CTest"), new RuntimeException("app died"));
+
+        assertEquals(2, notStarted.size());
+        assertEquals("b.BTest", notStarted.get(0).getName());
+        assertEquals("c.CTest", notStarted.get(1).getName());
+        assertEquals(Arrays.asList("testSetStarting a.ATest", "testSetCompleted a.ATest",
+                "testSetStarting b.BTest", "testError b.BTest (error)", "testSetCompleted b.BTest",
+                "testSetStarting c.CTest", "testError c.CTest (error)", "testSetCompleted c.CTest"),
+                reported);
+        assertNull(demultiplexer.getCurrentTestSet());
+    }
+
+    @Test
+    public void testReportsEmptyTestSetsForClassesWithoutResults() {
+        demultiplexer.testStarted(method("a.ATest", "one"));
+        demultiplexer.testFinished(method("a.ATest", "one"));
+        List<ReportEntry> notStarted = demultiplexer.finish(Arrays.asList("a.ATest", "b.BTest"), null);
+
+        assertEquals(1, notStarted.size());
+        assertEquals(Arrays.asList("testSetStarting a.ATest", "testSetCompleted a.ATest",
+                "testSetStarting b.BTest", "testSetCompleted b.BTest"), reported);
+    }
+
+    @Test
+    public void testRecordedEventsAreReplayedInOrder() {
+        TestEventRecorder recorder = new TestEventRecorder();
+        recorder.testStarted(method("a.ATest", "one"));
+        recorder.testFinished(method("a.ATest", "one"));
+        recorder.testFailure(new Failure(Description.createSuiteDescription("b.BTest"),
+                new AssertionError()));
+        assertEquals(Arrays.asList(), notified);
+
+        RunNotifier replayed = new RunNotifier();
+        replayed.addListener(demultiplexer);
+        recorder.replay(replayed);
+        demultiplexer.finish();
+        assertEquals(Arrays.asList("started one(a.ATest)", "finished one(a.ATest)", "failure b.BTest"),
+                notified);
+        assertEquals(Arrays.asList("testSetStarting a.ATest", "testSetCompleted a.ATest",
+                "testSetStarting b.BTest", "testSetCompleted b.BTest"), reported);
+
+        // Replaying again fires nothing
+        notified.clear();
+        recorder.replay(notifier);
+        assertEquals(Arrays.asList(), notified);
+    }
+}